@@ -30,6 +30,8 @@ public class CardboardDeviceParams {
 	private float mVisibleViewportSize;
 	private float mFovY;
 	private Distortion mDistortion;
+	private Distortion mRedDistortion;
+	private Distortion mBlueDistortion;
 
 	public CardboardDeviceParams() {
 		this.mVendor = "com.google";
@@ -65,6 +67,10 @@ public class CardboardDeviceParams {
 		this.mFovY = params.mFovY;
 
 		this.mDistortion = new Distortion(params.mDistortion);
+		this.mRedDistortion = params.mRedDistortion != null ? new Distortion(
+				params.mRedDistortion) : null;
+		this.mBlueDistortion = params.mBlueDistortion != null ? new Distortion(
+				params.mBlueDistortion) : null;
 	}
 
 	public static CardboardDeviceParams createFromNfcContents(
@@ -172,6 +178,28 @@ public class CardboardDeviceParams {
 		return this.mDistortion;
 	}
 
+	public void setRedDistortion(Distortion distortion) {
+		this.mRedDistortion = distortion != null ? new Distortion(distortion)
+				: null;
+	}
+
+	public Distortion getRedDistortion() {
+		return this.mRedDistortion;
+	}
+
+	public void setBlueDistortion(Distortion distortion) {
+		this.mBlueDistortion = distortion != null ? new Distortion(distortion)
+				: null;
+	}
+
+	public Distortion getBlueDistortion() {
+		return this.mBlueDistortion;
+	}
+
+	public boolean hasChromaticAberrationCorrection() {
+		return (this.mRedDistortion != null) || (this.mBlueDistortion != null);
+	}
+
 	public boolean equals(Object other) {
 		if (other == null) {
 			return false;
@@ -194,7 +222,11 @@ public class CardboardDeviceParams {
 				&& (this.mEyeToLensDistance == o.mEyeToLensDistance)
 				&& (this.mVisibleViewportSize == o.mVisibleViewportSize)
 				&& (this.mFovY == o.mFovY)
-				&& (this.mDistortion.equals(o.mDistortion));
+				&& (this.mDistortion.equals(o.mDistortion))
+				&& (this.mRedDistortion == null ? o.mRedDistortion == null
+						: this.mRedDistortion.equals(o.mRedDistortion))
+				&& (this.mBlueDistortion == null ? o.mBlueDistortion == null
+						: this.mBlueDistortion.equals(o.mBlueDistortion));
 	}
 
 	private boolean parseNfcUri(NdefRecord record) {
@@ -5,10 +5,13 @@ import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLSurfaceView.Renderer;
 import android.opengl.Matrix;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.WindowManager;
 import com.google.vrtoolkit.cardboard.sensors.HeadTracker;
+import java.io.File;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -20,10 +23,24 @@ public class CardboardView extends GLSurfaceView {
 	private HeadTracker mHeadTracker;
 	private HeadMountedDisplay mHmd;
 	private DistortionRenderer mDistortionRenderer;
+	private DistortionMeshCache mDistortionMeshCache;
+	private final GLStateTracker mGLStateTracker = new GLStateTracker();
+	private final FrameMetrics mFrameMetrics = new FrameMetrics();
+	private LatencyEstimator mLatencyEstimator;
+	private Choreographer.FrameCallback mVsyncCallback;
 	private CardboardDeviceParamsObserver mCardboardDeviceParamsObserver;
 	private boolean mVRMode = true;
 	private volatile boolean mDistortionCorrectionEnabled = true;
 	private volatile float mDistortionCorrectionScale = 1.0F;
+	private volatile int mDistortionCorrectionMode = DistortionRenderer.CorrectionMode.MESH;
+	private volatile boolean mDynamicResolutionEnabled;
+	private volatile boolean mHiddenAreaMaskEnabled;
+	private volatile boolean mTimewarpEnabled;
+	private volatile boolean mHalfRateEnabled;
+	private volatile boolean mMultiResolutionEnabled;
+	private volatile float mMultiResolutionCenterRatio = 0.5F;
+	private volatile float mMultiResolutionSurroundScale = 0.5F;
+	private volatile float mTargetFrameRate;
 	private float mZNear = 0.1F;
 	private float mZFar = 100.0F;
 
@@ -164,12 +181,183 @@ public class CardboardView extends GLSurfaceView {
 		return this.mDistortionCorrectionScale;
 	}
 
+	public void setDistortionCorrectionMode(int mode) {
+		if ((mode != DistortionRenderer.CorrectionMode.MESH)
+				&& (mode != DistortionRenderer.CorrectionMode.PER_PIXEL)) {
+			throw new IllegalArgumentException("Invalid correction mode: "
+					+ mode);
+		}
+		this.mDistortionCorrectionMode = mode;
+		if (this.mRendererHelper != null) {
+			this.mRendererHelper.setDistortionCorrectionMode(mode);
+		}
+	}
+
+	public int getDistortionCorrectionMode() {
+		return this.mDistortionCorrectionMode;
+	}
+
+	/**
+	 * Skips shading of eye buffer pixels that the lenses never show, using
+	 * the stencil buffer. While enabled, the stencil test is left enabled
+	 * with glStencilFunc(GL_EQUAL, 0, 0xFF) and GL_KEEP operations when
+	 * onDrawEye is called, so apps must not change the stencil state while
+	 * drawing the eyes. Has no effect while multi-resolution rendering is
+	 * active.
+	 */
+	public void setHiddenAreaMaskEnabled(boolean enabled) {
+		this.mHiddenAreaMaskEnabled = enabled;
+		if (this.mRendererHelper != null) {
+			this.mRendererHelper.setHiddenAreaMaskEnabled(enabled);
+		}
+	}
+
+	public boolean getHiddenAreaMaskEnabled() {
+		return this.mHiddenAreaMaskEnabled;
+	}
+
+	public void setTimewarpEnabled(boolean enabled) {
+		this.mTimewarpEnabled = enabled;
+		if (this.mRendererHelper != null) {
+			this.mRendererHelper.setTimewarpEnabled(enabled);
+		}
+	}
+
+	public boolean getTimewarpEnabled() {
+		return this.mTimewarpEnabled;
+	}
+
+	public void setHalfRateEnabled(boolean enabled) {
+		this.mHalfRateEnabled = enabled;
+		if (this.mRendererHelper != null) {
+			this.mRendererHelper.setHalfRateEnabled(enabled);
+		}
+	}
+
+	public boolean getHalfRateEnabled() {
+		return this.mHalfRateEnabled;
+	}
+
+	public void setPredictionHorizon(float seconds) {
+		this.mHeadTracker.setPredictionHorizon(seconds);
+	}
+
+	public void clearPredictionHorizon() {
+		this.mHeadTracker.clearPredictionHorizon();
+	}
+
+	public float getPredictionHorizon() {
+		return (float) this.mHeadTracker.getPredictionHorizon();
+	}
+
+	public void setMultiResolutionEnabled(boolean enabled) {
+		this.mMultiResolutionEnabled = enabled;
+		if (this.mRendererHelper != null) {
+			this.mRendererHelper.setMultiResolutionEnabled(enabled);
+		}
+	}
+
+	public boolean getMultiResolutionEnabled() {
+		return this.mMultiResolutionEnabled;
+	}
+
+	public void setMultiResolutionRatios(float centerRatio, float surroundScale) {
+		if ((!(centerRatio > 0.0F)) || (!(centerRatio <= 1.0F))) {
+			throw new IllegalArgumentException("Invalid center ratio: "
+					+ centerRatio);
+		}
+		if ((!(surroundScale > 0.0F)) || (!(surroundScale <= 1.0F))) {
+			throw new IllegalArgumentException("Invalid surround scale: "
+					+ surroundScale);
+		}
+		this.mMultiResolutionCenterRatio = centerRatio;
+		this.mMultiResolutionSurroundScale = surroundScale;
+		if (this.mRendererHelper != null) {
+			this.mRendererHelper.setMultiResolutionRatios(centerRatio,
+					surroundScale);
+		}
+	}
+
+	public float getMultiResolutionCenterRatio() {
+		return this.mMultiResolutionCenterRatio;
+	}
+
+	public float getMultiResolutionSurroundScale() {
+		return this.mMultiResolutionSurroundScale;
+	}
+
+	public void setDynamicResolutionEnabled(boolean enabled) {
+		this.mDynamicResolutionEnabled = enabled;
+		if (this.mRendererHelper != null) {
+			this.mRendererHelper.setDynamicResolutionEnabled(enabled);
+		}
+	}
+
+	public boolean getDynamicResolutionEnabled() {
+		return this.mDynamicResolutionEnabled;
+	}
+
+	public void setTargetFrameRate(float frameRate) {
+		if (!(frameRate > 0.0F)) {
+			throw new IllegalArgumentException("Invalid target frame rate: "
+					+ frameRate);
+		}
+		this.mTargetFrameRate = frameRate;
+		if (this.mRendererHelper != null) {
+			this.mRendererHelper.setTargetFrameRate(frameRate);
+		}
+	}
+
+	public float getTargetFrameRate() {
+		return this.mTargetFrameRate;
+	}
+
+	/**
+	 * Returns the tracker that caches the GL state the view saves and
+	 * restores around its own passes: the framebuffer binding, viewport,
+	 * scissor box, cull face, depth, stencil and scissor tests, and the
+	 * color, depth and stencil write masks. Apps that change any of these
+	 * while drawing must do so through this tracker, or call
+	 * GLStateTracker.invalidate() afterwards, otherwise the view restores
+	 * stale values. setGLStateValidationEnabled(true) logs every
+	 * violation of this in debug builds.
+	 */
+	public GLStateTracker getGLStateTracker() {
+		return this.mGLStateTracker;
+	}
+
+	public FrameMetrics getFrameMetrics() {
+		return this.mFrameMetrics;
+	}
+
+	/**
+	 * Alternates between the mesh and per-pixel distortion correction modes
+	 * for three rounds and logs the p50/p90 GPU distortion, CPU distortion
+	 * and frame times of each mode under the DistortionModeBenchmark tag.
+	 * Takes over getFrameMetrics() while it runs, then restores its
+	 * listener, its enabled state and the current correction mode.
+	 */
+	public void runDistortionModeBenchmark() {
+		new DistortionModeBenchmark(this).start();
+	}
+
+	public void setGLStateValidationEnabled(boolean enabled) {
+		this.mGLStateTracker.setValidationEnabled(enabled);
+	}
+
+	public boolean getGLStateValidationEnabled() {
+		return this.mGLStateTracker.isValidationEnabled();
+	}
+
 	public void onResume() {
 		if (this.mRendererHelper == null) {
 			return;
 		}
 		super.onResume();
 		this.mHeadTracker.startTracking();
+		if (this.mVsyncCallback != null) {
+			Choreographer.getInstance().postFrameCallback(this.mVsyncCallback);
+		}
 	}
 
 	public void onPause() {
@@ -178,6 +366,10 @@ public class CardboardView extends GLSurfaceView {
 		}
 		super.onPause();
 		this.mHeadTracker.stopTracking();
+		if (this.mVsyncCallback != null) {
+			Choreographer.getInstance().removeFrameCallback(this.mVsyncCallback);
+			this.mLatencyEstimator.resetVsync();
+		}
 	}
 
 	public void setRenderer(GLSurfaceView.Renderer renderer) {
@@ -207,8 +399,24 @@ public class CardboardView extends GLSurfaceView {
 		WindowManager windowManager = (WindowManager) context
 				.getSystemService("window");
 
+		this.mDistortionMeshCache = new DistortionMeshCache(new File(
+				context.getCacheDir(), "cardboard_distortion_meshes"));
+
 		this.mHeadTracker = new HeadTracker(context);
 		this.mHmd = new HeadMountedDisplay(windowManager.getDefaultDisplay());
+
+		float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+		this.mTargetFrameRate = refreshRate > 0.0F ? refreshRate : 60.0F;
+
+		this.mLatencyEstimator = new LatencyEstimator(this.mTargetFrameRate);
+		if (Build.VERSION.SDK_INT >= 16) {
+			this.mVsyncCallback = new Choreographer.FrameCallback() {
+				public void doFrame(long frameTimeNanos) {
+					CardboardView.this.mLatencyEstimator.onVsync(frameTimeNanos);
+					Choreographer.getInstance().postFrameCallback(this);
+				}
+			};
+		}
 	}
 
 	public static abstract interface Renderer {
@@ -250,12 +458,22 @@ public class CardboardView extends GLSurfaceView {
 		private final EyeParams mRightEye;
 		private final float[] mLeftEyeTranslate;
 		private final float[] mRightEyeTranslate;
+		private final float[] mDisplayHeadView;
 		private final CardboardView.Renderer mRenderer;
+		private final ResolutionGovernor mResolutionGovernor;
 		private boolean mShuttingDown;
 		private HeadMountedDisplay mHmd;
 		private boolean mVRMode;
 		private boolean mDistortionCorrectionEnabled;
 		private float mDistortionCorrectionScale;
+		private boolean mDynamicResolutionEnabled;
+		private boolean mTimewarpEnabled;
+		private boolean mHalfRateEnabled;
+		private boolean mReprojectNextFrame;
+		private long mLastFrameStartNanos;
+		private long mGpuResultFrameNumber;
+		private long mGpuScaleFrameNumber;
+		private long mPoseTimeNanos;
 		private float mZNear;
 		private float mZFar;
 		private boolean mProjectionChanged;
@@ -269,14 +487,40 @@ public class CardboardView extends GLSurfaceView {
 			this.mLeftEye = new EyeParams(1);
 			this.mRightEye = new EyeParams(2);
 			updateFieldOfView(this.mLeftEye.getFov(), this.mRightEye.getFov());
-			CardboardView.this.mDistortionRenderer = new DistortionRenderer();
+			CardboardView.this.mDistortionRenderer = new DistortionRenderer(
+					CardboardView.this.mDistortionMeshCache,
+					CardboardView.this.mGLStateTracker);
+			CardboardView.this.mDistortionRenderer
+					.setCorrectionMode(CardboardView.this.mDistortionCorrectionMode);
+			CardboardView.this.mDistortionRenderer
+					.setHiddenAreaMaskEnabled(CardboardView.this.mHiddenAreaMaskEnabled);
+			this.mTimewarpEnabled = CardboardView.this.mTimewarpEnabled;
+			CardboardView.this.mDistortionRenderer
+					.setTimewarpEnabled(this.mTimewarpEnabled);
+			CardboardView.this.mDistortionRenderer.setMultiResolutionRatios(
+					CardboardView.this.mMultiResolutionCenterRatio,
+					CardboardView.this.mMultiResolutionSurroundScale);
+			setMultiResolutionEnabledInternal(CardboardView.this.mMultiResolutionEnabled);
 
 			this.mLeftEyeTranslate = new float[16];
 			this.mRightEyeTranslate = new float[16];
+			this.mDisplayHeadView = new float[16];
+			this.mGpuResultFrameNumber = -1L;
 
 			this.mVRMode = CardboardView.this.mVRMode;
 			this.mDistortionCorrectionEnabled = CardboardView.this.mDistortionCorrectionEnabled;
 			this.mDistortionCorrectionScale = CardboardView.this.mDistortionCorrectionScale;
+			this.mDynamicResolutionEnabled = CardboardView.this.mDynamicResolutionEnabled;
+			this.mHalfRateEnabled = CardboardView.this.mHalfRateEnabled;
+			this.mResolutionGovernor = new ResolutionGovernor(
+					getRenderFrameRate(CardboardView.this.mTargetFrameRate));
+			this.mResolutionGovernor.reset(this.mDistortionCorrectionScale);
+			if (this.mDynamicResolutionEnabled) {
+				this.mDistortionCorrectionScale = this.mResolutionGovernor
+						.getScale();
+			}
+			CardboardView.this.mDistortionRenderer
+					.setResolutionScale(this.mDistortionCorrectionScale);
 			this.mZNear = CardboardView.this.mZNear;
 			this.mZFar = CardboardView.this.mZFar;
 
@@ -361,9 +605,180 @@ public class CardboardView extends GLSurfaceView {
 		public void setDistortionCorrectionScale(final float scale) {
 			CardboardView.this.queueEvent(new Runnable() {
 				public void run() {
-					CardboardView.RendererHelper.this.mDistortionCorrectionScale = scale;
+					CardboardView.RendererHelper.this.mResolutionGovernor
+							.reset(scale);
+					CardboardView.RendererHelper.this.setResolutionScale(
+							CardboardView.RendererHelper.this.mDynamicResolutionEnabled ? CardboardView.RendererHelper.this.mResolutionGovernor
+									.getScale() : scale);
+				}
+			});
+		}
+
+		public void setHiddenAreaMaskEnabled(final boolean enabled) {
+			CardboardView.this.queueEvent(new Runnable() {
+				public void run() {
+					CardboardView.this.mDistortionRenderer
+							.setHiddenAreaMaskEnabled(enabled);
+				}
+			});
+		}
+
+		public void setTimewarpEnabled(final boolean enabled) {
+			CardboardView.this.queueEvent(new Runnable() {
+				public void run() {
+					CardboardView.RendererHelper.this.mTimewarpEnabled = enabled;
+					CardboardView.this.mDistortionRenderer
+							.setTimewarpEnabled(enabled);
+				}
+			});
+		}
+
+		public void setMultiResolutionEnabled(final boolean enabled) {
+			CardboardView.this.queueEvent(new Runnable() {
+				public void run() {
+					CardboardView.RendererHelper.this
+							.setMultiResolutionEnabledInternal(enabled);
+				}
+			});
+		}
+
+		public void setMultiResolutionRatios(final float centerRatio,
+				final float surroundScale) {
+			CardboardView.this.queueEvent(new Runnable() {
+				public void run() {
+					CardboardView.this.mDistortionRenderer
+							.setMultiResolutionRatios(centerRatio,
+									surroundScale);
+				}
+			});
+		}
+
+		private void setMultiResolutionEnabledInternal(boolean enabled) {
+			if ((enabled)
+					&& (!(this.mRenderer instanceof CardboardView.StereoRendererHelper))) {
+				Log.w("CardboardView",
+						"Multi-resolution rendering requires a StereoRenderer");
+				enabled = false;
+			}
+			CardboardView.this.mDistortionRenderer
+					.setMultiResolutionEnabled(enabled);
+		}
+
+		public void setDynamicResolutionEnabled(final boolean enabled) {
+			CardboardView.this.queueEvent(new Runnable() {
+				public void run() {
+					if (CardboardView.RendererHelper.this.mDynamicResolutionEnabled == enabled) {
+						return;
+					}
+					CardboardView.RendererHelper.this.mDynamicResolutionEnabled = enabled;
+					float scale = CardboardView.this.mDistortionCorrectionScale;
+					CardboardView.RendererHelper.this.mResolutionGovernor
+							.reset(scale);
+					CardboardView.RendererHelper.this.mLastFrameStartNanos = 0L;
+					CardboardView.RendererHelper.this.setResolutionScale(
+							enabled ? CardboardView.RendererHelper.this.mResolutionGovernor
+									.getScale() : scale);
+				}
+			});
+		}
+
+		public void setTargetFrameRate(final float frameRate) {
+			CardboardView.this.queueEvent(new Runnable() {
+				public void run() {
+					CardboardView.RendererHelper.this.mResolutionGovernor
+							.setTargetFrameRate(CardboardView.RendererHelper.this
+									.getRenderFrameRate(frameRate));
+				}
+			});
+		}
+
+		public void setHalfRateEnabled(final boolean enabled) {
+			CardboardView.this.queueEvent(new Runnable() {
+				public void run() {
+					if (CardboardView.RendererHelper.this.mHalfRateEnabled == enabled) {
+						return;
+					}
+					CardboardView.RendererHelper.this.mHalfRateEnabled = enabled;
+					CardboardView.RendererHelper.this.mReprojectNextFrame = false;
+					CardboardView.RendererHelper.this.mLastFrameStartNanos = 0L;
+					CardboardView.RendererHelper.this.mResolutionGovernor
+							.setTargetFrameRate(CardboardView.RendererHelper.this
+									.getRenderFrameRate(CardboardView.this.mTargetFrameRate));
+				}
+			});
+		}
+
+		private float getRenderFrameRate(float frameRate) {
+			return this.mHalfRateEnabled ? frameRate / 2.0F : frameRate;
+		}
+
+		private boolean reprojectLastFrame() {
+			if ((!this.mHalfRateEnabled) || (!this.mVRMode)
+					|| (!this.mDistortionCorrectionEnabled)
+					|| (this.mProjectionChanged)) {
+				return false;
+			}
+			this.mPoseTimeNanos = System.nanoTime();
+			CardboardView.this.mHeadTracker.getLastHeadView(
+					this.mDisplayHeadView, 0);
+			CardboardView.this.mDistortionRenderer.setTimewarpHeadViews(
+					this.mHeadTransform.getHeadView(), 0, this.mDisplayHeadView,
+					0);
+			return CardboardView.this.mDistortionRenderer.reprojectLastFrame();
+		}
+
+		private void setResolutionScale(float scale) {
+			this.mDistortionCorrectionScale = scale;
+			CardboardView.this.mDistortionRenderer.setResolutionScale(scale);
+			this.mGpuScaleFrameNumber = CardboardView.this.mDistortionRenderer
+					.getGpuTimer().getFrameNumber();
+		}
+
+		private void updateLatencyEstimate() {
+			LatencyEstimator estimator = CardboardView.this.mLatencyEstimator;
+			if (estimator.addFrame(this.mPoseTimeNanos, System.nanoTime())) {
+				CardboardView.this.mHeadTracker
+						.setMeasuredPredictionHorizon(estimator
+								.getLatencySeconds());
+			}
+		}
+
+		private void reportGpuTimes(FrameMetrics metrics, boolean recording) {
+			GpuTimer timer = CardboardView.this.mDistortionRenderer
+					.getGpuTimer();
+			long frameNumber = timer.getResultFrameNumber();
+			if ((frameNumber < 0L) || (frameNumber == this.mGpuResultFrameNumber)) {
+				return;
+			}
+			this.mGpuResultFrameNumber = frameNumber;
+			if (recording) {
+				metrics.set(FrameMetrics.GPU_EYES,
+						timer.getResult(GpuTimer.EYES));
+				metrics.set(FrameMetrics.GPU_DISTORTION,
+						timer.getResult(GpuTimer.DISTORTION));
+			}
+			long gpuTime = timer.getResultTotal();
+			if ((this.mDynamicResolutionEnabled) && (gpuTime >= 0L)
+					&& (frameNumber >= this.mGpuScaleFrameNumber)) {
+				this.mResolutionGovernor.addGpuTime(gpuTime);
+			}
+		}
+
+		private void updateResolutionGovernor() {
+			long frameStartNanos = System.nanoTime();
+			if ((this.mLastFrameStartNanos != 0L)
+					&& (this.mResolutionGovernor.addFrameTime(frameStartNanos
+							- this.mLastFrameStartNanos))) {
+				setResolutionScale(this.mResolutionGovernor.getScale());
+			}
+			this.mLastFrameStartNanos = frameStartNanos;
+		}
+
+		public void setDistortionCorrectionMode(final int mode) {
+			CardboardView.this.queueEvent(new Runnable() {
+				public void run() {
 					CardboardView.this.mDistortionRenderer
-							.setResolutionScale(scale);
+							.setCorrectionMode(mode);
 				}
 			});
 		}
@@ -393,9 +808,39 @@ public class CardboardView extends GLSurfaceView {
 			if ((this.mShuttingDown) || (this.mInvalidSurfaceSize)) {
 				return;
 			}
+			FrameMetrics metrics = CardboardView.this.mFrameMetrics;
+			boolean recording = metrics.beginFrame();
+			long time = recording ? metrics.getFrameStartNanos() : 0L;
+			CardboardView.this.mDistortionRenderer
+					.setGpuTimingEnabled((recording)
+							|| (this.mDynamicResolutionEnabled));
+			if ((this.mReprojectNextFrame) && (reprojectLastFrame())) {
+				this.mReprojectNextFrame = false;
+				if (recording) {
+					time = metrics.record(FrameMetrics.DISTORTION, time);
+				}
+				this.mRenderer.onFinishFrame(this.mMonocular.getViewport());
+				if (recording) {
+					metrics.record(FrameMetrics.APP_DRAW, time);
+				}
+				reportGpuTimes(metrics, recording);
+				updateLatencyEstimate();
+				if (recording) {
+					metrics.endFrame();
+				}
+				return;
+			}
+			this.mReprojectNextFrame = this.mHalfRateEnabled;
+			if ((this.mDynamicResolutionEnabled) && (this.mVRMode)
+					&& (this.mDistortionCorrectionEnabled)) {
+				updateResolutionGovernor();
+			} else {
+				this.mLastFrameStartNanos = 0L;
+			}
 			ScreenParams screen = this.mHmd.getScreen();
 			CardboardDeviceParams cdp = this.mHmd.getCardboard();
 
+			this.mPoseTimeNanos = System.nanoTime();
 			CardboardView.this.mHeadTracker.getLastHeadView(
 					this.mHeadTransform.getHeadView(), 0);
 
@@ -422,6 +867,9 @@ public class CardboardView extends GLSurfaceView {
 						this.mMonocular.getTransform().getEyeView(), 0,
 						this.mHeadTransform.getHeadView().length);
 			}
+			if (recording) {
+				time = metrics.record(FrameMetrics.POSE, time);
+			}
 			if (this.mProjectionChanged) {
 				this.mMonocular.getViewport().setViewport(0, 0,
 						screen.getWidth(), screen.getHeight());
@@ -485,10 +933,16 @@ public class CardboardView extends GLSurfaceView {
 							screen.getHeight());
 				}
 				this.mProjectionChanged = false;
+				if (recording) {
+					time = metrics.record(FrameMetrics.PROJECTION, time);
+				}
 			}
 			if (this.mVRMode) {
 				if (this.mDistortionCorrectionEnabled) {
 					CardboardView.this.mDistortionRenderer.beforeDrawFrame();
+					if (recording) {
+						time = metrics.record(FrameMetrics.DISTORTION, time);
+					}
 					if (this.mDistortionCorrectionScale == 1.0F) {
 						this.mRenderer.onDrawFrame(this.mHeadTransform,
 								this.mLeftEye, this.mRightEye);
@@ -527,7 +981,22 @@ public class CardboardView extends GLSurfaceView {
 						this.mRightEye.getViewport().setViewport(rightX,
 								rightY, rightWidth, rightHeight);
 					}
+					if (recording) {
+						time = metrics.record(FrameMetrics.APP_DRAW, time);
+					}
+					if (this.mTimewarpEnabled) {
+						this.mPoseTimeNanos = System.nanoTime();
+						CardboardView.this.mHeadTracker.getLastHeadView(
+								this.mDisplayHeadView, 0);
+						CardboardView.this.mDistortionRenderer
+								.setTimewarpHeadViews(
+										this.mHeadTransform.getHeadView(), 0,
+										this.mDisplayHeadView, 0);
+					}
 					CardboardView.this.mDistortionRenderer.afterDrawFrame();
+					if (recording) {
+						time = metrics.record(FrameMetrics.DISTORTION, time);
+					}
 				} else {
 					this.mRenderer.onDrawFrame(this.mHeadTransform,
 							this.mLeftEye, this.mRightEye);
@@ -537,6 +1006,16 @@ public class CardboardView extends GLSurfaceView {
 						this.mMonocular, null);
 			}
 			this.mRenderer.onFinishFrame(this.mMonocular.getViewport());
+			if (recording) {
+				metrics.record(FrameMetrics.APP_DRAW, time);
+			}
+			reportGpuTimes(metrics, recording);
+			if (this.mVRMode) {
+				updateLatencyEstimate();
+			}
+			if (recording) {
+				metrics.endFrame();
+			}
 		}
 
 		public void onSurfaceChanged(GL10 gl, int width, int height) {
@@ -557,6 +1036,7 @@ public class CardboardView extends GLSurfaceView {
 			} else {
 				this.mInvalidSurfaceSize = false;
 			}
+			this.mLastFrameStartNanos = 0L;
 			this.mRenderer.onSurfaceChanged(width, height);
 		}
 
@@ -564,6 +1044,7 @@ public class CardboardView extends GLSurfaceView {
 			if (this.mShuttingDown) {
 				return;
 			}
+			CardboardView.this.mGLStateTracker.invalidate();
 			this.mRenderer.onSurfaceCreated(config);
 		}
 
@@ -617,10 +1098,18 @@ public class CardboardView extends GLSurfaceView {
 	private class StereoRendererHelper implements CardboardView.Renderer {
 		private final CardboardView.StereoRenderer mStereoRenderer;
 		private boolean mVRMode;
+		private final Viewport mRegionViewport;
+		private final float[] mRegionBounds;
+		private final float[] mRegionTransform;
+		private final float[] mPerspective;
 
 		public StereoRendererHelper(CardboardView.StereoRenderer stereoRenderer) {
 			this.mStereoRenderer = stereoRenderer;
 			this.mVRMode = CardboardView.this.mVRMode;
+			this.mRegionViewport = new Viewport();
+			this.mRegionBounds = new float[4];
+			this.mRegionTransform = new float[16];
+			this.mPerspective = new float[16];
 		}
 
 		public void setVRModeEnabled(final boolean enabled) {
@@ -633,23 +1122,59 @@ public class CardboardView extends GLSurfaceView {
 
 		public void onDrawFrame(HeadTransform head, EyeParams leftEye,
 				EyeParams rightEye) {
+			GLStateTracker glState = CardboardView.this.mGLStateTracker;
 			this.mStereoRenderer.onNewFrame(head);
-			GLES20.glEnable(3089);
-
-			leftEye.getViewport().setGLViewport();
-			leftEye.getViewport().setGLScissor();
+			glState.setEnabled(3089, true);
+			if ((rightEye != null)
+					&& (CardboardView.this.mDistortionRenderer
+							.isMultiResolutionActive())) {
+				drawEyeRegions(leftEye);
+				drawEyeRegions(rightEye);
+				return;
+			}
+			glState.setViewport(leftEye.getViewport());
+			glState.setScissor(leftEye.getViewport());
 			this.mStereoRenderer.onDrawEye(leftEye.getTransform());
 			if (rightEye == null) {
 				return;
 			}
-			rightEye.getViewport().setGLViewport();
-			rightEye.getViewport().setGLScissor();
+			glState.setViewport(rightEye.getViewport());
+			glState.setScissor(rightEye.getViewport());
 			this.mStereoRenderer.onDrawEye(rightEye.getTransform());
 		}
 
+		private void drawEyeRegions(EyeParams eye) {
+			GLStateTracker glState = CardboardView.this.mGLStateTracker;
+			DistortionRenderer distortionRenderer = CardboardView.this.mDistortionRenderer;
+			EyeTransform transform = eye.getTransform();
+			float[] perspective = transform.getPerspective();
+			System.arraycopy(perspective, 0, this.mPerspective, 0, 16);
+			Matrix.setIdentityM(this.mRegionTransform, 0);
+			for (int region = 0; region < 9; region++) {
+				if (!distortionRenderer.getMultiResolutionRegion(eye.getEye(),
+						region, this.mRegionViewport, this.mRegionBounds, 0)) {
+					continue;
+				}
+				float width = this.mRegionBounds[1] - this.mRegionBounds[0];
+				float height = this.mRegionBounds[3] - this.mRegionBounds[2];
+				this.mRegionTransform[0] = (2.0F / width);
+				this.mRegionTransform[5] = (2.0F / height);
+				this.mRegionTransform[12] = (-(this.mRegionBounds[0] + this.mRegionBounds[1]) / width);
+				this.mRegionTransform[13] = (-(this.mRegionBounds[2] + this.mRegionBounds[3]) / height);
+				Matrix.multiplyMM(perspective, 0, this.mRegionTransform, 0,
+						this.mPerspective, 0);
+
+				glState.setViewport(this.mRegionViewport);
+				glState.setScissor(this.mRegionViewport);
+				this.mStereoRenderer.onDrawEye(transform);
+			}
+			System.arraycopy(this.mPerspective, 0, perspective, 0, 16);
+		}
+
 		public void onFinishFrame(Viewport viewport) {
-			viewport.setGLViewport();
-			viewport.setGLScissor();
+			GLStateTracker glState = CardboardView.this.mGLStateTracker;
+			glState.setViewport(viewport);
+			glState.setScissor(viewport);
 			this.mStereoRenderer.onFinishFrame(viewport);
 		}
 
@@ -1,41 +1,269 @@
 package com.google.vrtoolkit.cardboard;
 
+import java.util.Arrays;
+
 public class Distortion {
 	private static final float[] DEFAULT_COEFFICIENTS = { 250.0F, 50000.0F };
+	private static final int INVERSE_TABLE_MIN_SIZE = 64;
+	private static final int INVERSE_TABLE_MAX_SIZE = 8192;
+	private static final float INVERSE_TABLE_MAX_ERROR = 1.0E-6F;
+	private static final int APPROXIMATION_FIT_SAMPLES = 200;
+	private static final int APPROXIMATION_ERROR_SAMPLES = 1000;
 	private float[] mCoefficients;
+	private float[] mInverseTable;
+	private float mInverseTableMaxRadius;
+	private float mInverseTableScale;
+	private boolean mInverseTableFailed;
+	private Distortion mApproximateInverse;
+	private float mApproximateInverseMaxRadius;
+	private float mApproximationMaxError;
 
 	public Distortion() {
-		this.mCoefficients = new float[2];
-		this.mCoefficients[0] = DEFAULT_COEFFICIENTS[0];
-		this.mCoefficients[1] = DEFAULT_COEFFICIENTS[1];
+		this.mCoefficients = ((float[]) DEFAULT_COEFFICIENTS.clone());
 	}
 
 	public Distortion(Distortion other) {
-		this.mCoefficients = new float[2];
-		this.mCoefficients[0] = other.mCoefficients[0];
-		this.mCoefficients[1] = other.mCoefficients[1];
+		this.mCoefficients = ((float[]) other.mCoefficients.clone());
+		this.mInverseTable = other.mInverseTable;
+		this.mInverseTableMaxRadius = other.mInverseTableMaxRadius;
+		this.mInverseTableScale = other.mInverseTableScale;
+		this.mInverseTableFailed = other.mInverseTableFailed;
+		this.mApproximateInverse = other.mApproximateInverse;
+		this.mApproximateInverseMaxRadius = other.mApproximateInverseMaxRadius;
+		this.mApproximationMaxError = other.mApproximationMaxError;
 	}
 
 	public void setCoefficients(float[] coefficients) {
-		this.mCoefficients[0] = coefficients[0];
-		this.mCoefficients[1] = coefficients[1];
+		if (coefficients.length != this.mCoefficients.length) {
+			this.mCoefficients = new float[coefficients.length];
+		}
+		System.arraycopy(coefficients, 0, this.mCoefficients, 0,
+				coefficients.length);
+		invalidateInverseTable();
+		this.mApproximateInverse = null;
+		this.mApproximationMaxError = 0.0F;
 	}
 
 	public float[] getCoefficients() {
 		return this.mCoefficients;
 	}
 
+	public int getNumCoefficients() {
+		return this.mCoefficients.length;
+	}
+
 	public float distortionFactor(float radius) {
+		float[] k = this.mCoefficients;
 		float rSq = radius * radius;
-		return 1.0F + this.mCoefficients[0] * rSq + this.mCoefficients[1] * rSq
-				* rSq;
+		float factor = 0.0F;
+		for (int i = k.length - 1; i >= 0; i--) {
+			factor = (factor + k[i]) * rSq;
+		}
+		return 1.0F + factor;
 	}
 
 	public float distort(float radius) {
 		return radius * distortionFactor(radius);
 	}
 
+	public void distort(float[] in, float[] out, int n) {
+		if ((n > in.length) || (n > out.length)) {
+			throw new IllegalArgumentException(
+					"Not enough space to read or write " + n + " radii");
+		}
+		float[] k = this.mCoefficients;
+		int last = k.length - 1;
+		for (int i = 0; i < n; i++) {
+			float radius = in[i];
+			float rSq = radius * radius;
+			float factor = 0.0F;
+			for (int j = last; j >= 0; j--) {
+				factor = (factor + k[j]) * rSq;
+			}
+			out[i] = radius * (1.0F + factor);
+		}
+	}
+
 	public float distortInverse(float radius) {
+		if (radius == 0.0F) {
+			return 0.0F;
+		}
+		if (!ensureInverseTable(radius)) {
+			return distortInverseIterative(radius);
+		}
+		return lookupInverseTable(radius);
+	}
+
+	public void distortInverse(float[] in, float[] out, int n) {
+		if ((n > in.length) || (n > out.length)) {
+			throw new IllegalArgumentException(
+					"Not enough space to read or write " + n + " radii");
+		}
+		float maxRadius = 0.0F;
+		boolean negative = false;
+		for (int i = 0; i < n; i++) {
+			maxRadius = Math.max(maxRadius, in[i]);
+			negative |= in[i] < 0.0F;
+		}
+		if (maxRadius == 0.0F) {
+			for (int i = 0; i < n; i++) {
+				out[i] = in[i] == 0.0F ? 0.0F : distortInverseIterative(in[i]);
+			}
+			return;
+		}
+		if ((negative) || (!ensureInverseTable(maxRadius))) {
+			for (int i = 0; i < n; i++) {
+				out[i] = distortInverseIterative(in[i]);
+			}
+			return;
+		}
+		float[] table = this.mInverseTable;
+		float scale = this.mInverseTableScale;
+		int last = table.length - 1;
+		for (int i = 0; i < n; i++) {
+			float x = in[i] * scale;
+			int j = (int) x;
+			if (j >= last) {
+				out[i] = table[last];
+			} else {
+				out[i] = table[j] + (x - j) * (table[(j + 1)] - table[j]);
+			}
+		}
+	}
+
+	private boolean ensureInverseTable(float radius) {
+		if ((!(radius >= 0.0F)) || (this.mInverseTableFailed)) {
+			return false;
+		}
+		if ((this.mInverseTable == null)
+				|| (radius > this.mInverseTableMaxRadius)) {
+			return buildInverseTable(radius);
+		}
+		return true;
+	}
+
+	private float lookupInverseTable(float radius) {
+		float x = radius * this.mInverseTableScale;
+		int i = (int) x;
+		if (i >= this.mInverseTable.length - 1) {
+			return this.mInverseTable[(this.mInverseTable.length - 1)];
+		}
+		float t = x - i;
+		return this.mInverseTable[i] + t
+				* (this.mInverseTable[(i + 1)] - this.mInverseTable[i]);
+	}
+
+	public Distortion getApproximateInverseDistortion(float maxRadius) {
+		return getApproximateInverseDistortion(maxRadius,
+				this.mCoefficients.length);
+	}
+
+	public Distortion getApproximateInverseDistortion(float maxRadius,
+			int numCoefficients) {
+		if ((this.mApproximateInverse != null)
+				&& (this.mApproximateInverseMaxRadius == maxRadius)
+				&& (this.mApproximateInverse.mCoefficients.length == numCoefficients)) {
+			return this.mApproximateInverse;
+		}
+		int n = numCoefficients;
+		double[][] a = new double[n][n];
+		double[] b = new double[n];
+		double[] powers = new double[n];
+		for (int i = 1; i <= APPROXIMATION_FIT_SAMPLES; i++) {
+			double y = (double) i / APPROXIMATION_FIT_SAMPLES;
+			double x = distortInverseNewton(maxRadius * y) / maxRadius;
+			if ((Double.isNaN(x)) || (Double.isInfinite(x))) {
+				continue;
+			}
+			double ySq = y * y;
+			double power = y * ySq;
+			for (int j = 0; j < n; j++) {
+				powers[j] = power;
+				power *= ySq;
+			}
+			for (int j = 0; j < n; j++) {
+				b[j] += powers[j] * (x - y);
+				for (int k = 0; k < n; k++) {
+					a[j][k] += powers[j] * powers[k];
+				}
+			}
+		}
+		double[] solution = solveLinearSystem(a, b);
+		if (solution == null) {
+			return null;
+		}
+		Distortion inverse = new Distortion(this);
+		inverse.mCoefficients = new float[n];
+		double scale = 1.0D;
+		for (int j = 0; j < n; j++) {
+			scale *= maxRadius * maxRadius;
+			inverse.mCoefficients[j] = (float) (solution[j] / scale);
+		}
+		inverse.invalidateInverseTable();
+		inverse.mApproximateInverse = null;
+		inverse.mApproximationMaxError = 0.0F;
+
+		float maxError = 0.0F;
+		for (int i = 0; i <= APPROXIMATION_ERROR_SAMPLES; i++) {
+			float y = maxRadius * i / APPROXIMATION_ERROR_SAMPLES;
+			double exact = distortInverseNewton(y);
+			if ((Double.isNaN(exact)) || (Double.isInfinite(exact))) {
+				continue;
+			}
+			float error = (float) Math.abs(inverse.distort(y) - exact);
+			if (error > maxError) {
+				maxError = error;
+			}
+		}
+		inverse.mApproximationMaxError = maxError;
+
+		this.mApproximateInverse = inverse;
+		this.mApproximateInverseMaxRadius = maxRadius;
+		return inverse;
+	}
+
+	public float getApproximationMaxError() {
+		return this.mApproximationMaxError;
+	}
+
+	private static double[] solveLinearSystem(double[][] a, double[] b) {
+		int n = b.length;
+		for (int col = 0; col < n; col++) {
+			int pivot = col;
+			for (int row = col + 1; row < n; row++) {
+				if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+					pivot = row;
+				}
+			}
+			if (a[pivot][col] == 0.0D) {
+				return null;
+			}
+			double[] tmpRow = a[col];
+			a[col] = a[pivot];
+			a[pivot] = tmpRow;
+			double tmp = b[col];
+			b[col] = b[pivot];
+			b[pivot] = tmp;
+			for (int row = col + 1; row < n; row++) {
+				double factor = a[row][col] / a[col][col];
+				for (int k = col; k < n; k++) {
+					a[row][k] -= factor * a[col][k];
+				}
+				b[row] -= factor * b[col];
+			}
+		}
+		double[] x = new double[n];
+		for (int row = n - 1; row >= 0; row--) {
+			double sum = b[row];
+			for (int k = row + 1; k < n; k++) {
+				sum -= a[row][k] * x[k];
+			}
+			x[row] = sum / a[row][row];
+		}
+		return x;
+	}
+
+	float distortInverseIterative(float radius) {
 		float r0 = radius / 0.9F;
 		float r1 = radius * 0.9F;
 
@@ -50,6 +278,83 @@ public class Distortion {
 		return r1;
 	}
 
+	private double distortInverseNewton(double radius) {
+		float[] k = this.mCoefficients;
+		double r = radius;
+		for (int i = 0; i < 32; i++) {
+			double rSq = r * r;
+			double factor = 0.0D;
+			double slope = 0.0D;
+			for (int j = k.length - 1; j >= 0; j--) {
+				factor = (factor + k[j]) * rSq;
+				slope = (slope + (2 * j + 3) * k[j]) * rSq;
+			}
+			double f = r * (1.0D + factor) - radius;
+			double df = 1.0D + slope;
+			if (df <= 0.0D) {
+				return Double.NaN;
+			}
+			double step = f / df;
+			r -= step;
+			if (Math.abs(step) < 1.0E-12D) {
+				break;
+			}
+		}
+		return r;
+	}
+
+	private void invalidateInverseTable() {
+		this.mInverseTable = null;
+		this.mInverseTableMaxRadius = 0.0F;
+		this.mInverseTableScale = 0.0F;
+		this.mInverseTableFailed = false;
+	}
+
+	private boolean buildInverseTable(float radius) {
+		float maxRadius = Math.max(radius, 2.0F * this.mInverseTableMaxRadius);
+		if (!(maxRadius > 0.0F)) {
+			return false;
+		}
+		int size = INVERSE_TABLE_MIN_SIZE;
+		float[] table = new float[size + 1];
+		for (int i = 0; i <= size; i++) {
+			table[i] = (float) distortInverseNewton(maxRadius * i / size);
+		}
+		while (!isInverseTableAccurate(table, maxRadius)) {
+			if (size >= INVERSE_TABLE_MAX_SIZE) {
+				this.mInverseTableFailed = true;
+				return false;
+			}
+			size *= 2;
+			float[] refined = new float[size + 1];
+			for (int i = 0; i <= size; i++) {
+				refined[i] = i % 2 == 0 ? table[(i / 2)]
+						: (float) distortInverseNewton(maxRadius * i / size);
+			}
+			table = refined;
+		}
+		this.mInverseTable = table;
+		this.mInverseTableMaxRadius = maxRadius;
+		this.mInverseTableScale = size / maxRadius;
+		return true;
+	}
+
+	private boolean isInverseTableAccurate(float[] table, float maxRadius) {
+		int size = table.length - 1;
+		for (int i = 0; i < size; i++) {
+			if (!(table[(i + 1)] > table[i])) {
+				return false;
+			}
+			double midpoint = distortInverseNewton(maxRadius
+					* (2.0D * i + 1.0D) / (2.0D * size));
+			double interpolated = 0.5D * (table[i] + table[(i + 1)]);
+			if (!(Math.abs(interpolated - midpoint) <= INVERSE_TABLE_MAX_ERROR)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public boolean equals(Object other) {
 		if (other == null) {
 			return false;
@@ -61,12 +366,17 @@ public class Distortion {
 			return false;
 		}
 		Distortion o = (Distortion) other;
-		return (this.mCoefficients[0] == o.mCoefficients[0])
-				&& (this.mCoefficients[1] == o.mCoefficients[1]);
+		return Arrays.equals(this.mCoefficients, o.mCoefficients);
 	}
 
 	public String toString() {
-		return "Distortion {" + this.mCoefficients[0] + ", "
-				+ this.mCoefficients[1] + "}";
+		StringBuilder builder = new StringBuilder("Distortion {");
+		for (int i = 0; i < this.mCoefficients.length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(this.mCoefficients[i]);
+		}
+		return builder.append("}").toString();
 	}
 }
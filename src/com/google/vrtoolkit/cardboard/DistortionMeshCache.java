@@ -0,0 +1,267 @@
+package com.google.vrtoolkit.cardboard;
+
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class DistortionMeshCache {
+	private static final String TAG = "DistortionMeshCache";
+	private static final int FILE_MAGIC = 1128547661;
+	private static final int FILE_VERSION = 4;
+	private static final int HEADER_SIZE_BYTES = 32;
+	private static final int MAX_MEMORY_ENTRIES = 4;
+	private static final int MAX_FILES = 8;
+	private static final String FILE_PREFIX = "mesh_";
+	private static final String FILE_SUFFIX = ".bin";
+	private static final long FINGERPRINT_SEED = -3750763034362895579L;
+	private static final long FINGERPRINT_PRIME = 1099511628211L;
+	private final File mDirectory;
+	private final LinkedHashMap<Long, MeshData> mEntries;
+
+	public DistortionMeshCache(File directory) {
+		this.mDirectory = directory;
+		this.mEntries = new LinkedHashMap<Long, MeshData>(MAX_MEMORY_ENTRIES,
+				0.75F, true) {
+			protected boolean removeEldestEntry(Map.Entry<Long, MeshData> eldest) {
+				return size() > MAX_MEMORY_ENTRIES;
+			}
+		};
+	}
+
+	static class MeshData {
+		public final long key;
+		public final boolean chromatic;
+		public final int vertexStrideBytes;
+		public final int nVertices;
+		public final int nIndices;
+		public final ByteBuffer vertices;
+		public final ByteBuffer indices;
+
+		public MeshData(long key, boolean chromatic, int vertexStrideBytes,
+				int nVertices, int nIndices, ByteBuffer vertices,
+				ByteBuffer indices) {
+			this.key = key;
+			this.chromatic = chromatic;
+			this.vertexStrideBytes = vertexStrideBytes;
+			this.nVertices = nVertices;
+			this.nIndices = nIndices;
+			this.vertices = vertices;
+			this.indices = indices;
+		}
+
+		public int getVertexSizeBytes() {
+			return this.nVertices * this.vertexStrideBytes;
+		}
+
+		public int getIndexSizeBytes() {
+			return this.nIndices * 2;
+		}
+	}
+
+	public static long fingerprint() {
+		return fingerprint(FINGERPRINT_SEED, FILE_VERSION);
+	}
+
+	public static long fingerprint(long hash, int value) {
+		for (int i = 0; i < 4; i++) {
+			hash ^= value >>> 8 * i & 0xFF;
+			hash *= FINGERPRINT_PRIME;
+		}
+		return hash;
+	}
+
+	public static long fingerprint(long hash, float value) {
+		return fingerprint(hash, Float.floatToIntBits(value));
+	}
+
+	public static long fingerprint(long hash, Distortion distortion) {
+		if (distortion == null) {
+			return fingerprint(hash, -1);
+		}
+		float[] coefficients = distortion.getCoefficients();
+		hash = fingerprint(hash, coefficients.length);
+		for (int i = 0; i < coefficients.length; i++) {
+			hash = fingerprint(hash, coefficients[i]);
+		}
+		return hash;
+	}
+
+	public synchronized MeshData get(long key) {
+		MeshData data = (MeshData) this.mEntries.get(Long.valueOf(key));
+		if ((data == null) && (this.mDirectory != null)) {
+			data = readFile(key);
+			if (data != null) {
+				this.mEntries.put(Long.valueOf(key), data);
+			}
+		}
+		return data;
+	}
+
+	public synchronized void put(MeshData data) {
+		this.mEntries.put(Long.valueOf(data.key), data);
+		if (this.mDirectory != null) {
+			writeFile(data);
+		}
+	}
+
+	private File getFile(long key) {
+		return new File(this.mDirectory, FILE_PREFIX + Long.toHexString(key)
+				+ FILE_SUFFIX);
+	}
+
+	private MeshData readFile(long key) {
+		File file = getFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		RandomAccessFile input = null;
+		try {
+			input = new RandomAccessFile(file, "r");
+			FileChannel channel = input.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE_BYTES) {
+				throw new IOException("Truncated header");
+			}
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0L, size);
+			buffer.order(ByteOrder.nativeOrder());
+			if ((buffer.getInt(0) != FILE_MAGIC)
+					|| (buffer.getInt(4) != FILE_VERSION)
+					|| (buffer.getLong(8) != key)) {
+				throw new IOException("Header mismatch");
+			}
+			boolean chromatic = buffer.getInt(16) != 0;
+			int vertexStrideBytes = buffer.getInt(20);
+			int nVertices = buffer.getInt(24);
+			int nIndices = buffer.getInt(28);
+			long vertexSizeBytes = (long) nVertices * vertexStrideBytes;
+			long indexSizeBytes = 2L * nIndices;
+			if ((vertexStrideBytes <= 0) || (nVertices <= 0) || (nIndices <= 0)
+					|| (HEADER_SIZE_BYTES + vertexSizeBytes + indexSizeBytes != size)) {
+				throw new IOException("Size mismatch");
+			}
+			buffer.position(HEADER_SIZE_BYTES);
+			buffer.limit(HEADER_SIZE_BYTES + (int) vertexSizeBytes);
+			ByteBuffer vertices = buffer.slice().order(ByteOrder.nativeOrder());
+			buffer.limit((int) size);
+			buffer.position(HEADER_SIZE_BYTES + (int) vertexSizeBytes);
+			ByteBuffer indices = buffer.slice().order(ByteOrder.nativeOrder());
+
+			file.setLastModified(System.currentTimeMillis());
+			return new MeshData(key, chromatic, vertexStrideBytes, nVertices,
+					nIndices, vertices, indices);
+		} catch (IOException e) {
+			Log.w(TAG, "Discarding cached mesh " + file.getName() + ": "
+					+ e.toString());
+			file.delete();
+			return null;
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private void writeFile(MeshData data) {
+		if ((!this.mDirectory.isDirectory()) && (!this.mDirectory.mkdirs())) {
+			Log.w(TAG, "Could not create " + this.mDirectory);
+			return;
+		}
+		File file = getFile(data.key);
+		File tmpFile = new File(this.mDirectory, file.getName() + ".tmp");
+		FileOutputStream output = null;
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE_BYTES).order(
+					ByteOrder.nativeOrder());
+			header.putInt(FILE_MAGIC);
+			header.putInt(FILE_VERSION);
+			header.putLong(data.key);
+			header.putInt(data.chromatic ? 1 : 0);
+			header.putInt(data.vertexStrideBytes);
+			header.putInt(data.nVertices);
+			header.putInt(data.nIndices);
+			header.flip();
+
+			output = new FileOutputStream(tmpFile);
+			FileChannel channel = output.getChannel();
+			writeFully(channel, header);
+			writeFully(channel, data.vertices.duplicate());
+			writeFully(channel, data.indices.duplicate());
+			output.close();
+			output = null;
+			if (!tmpFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tmpFile.getName());
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Could not write cached mesh " + file.getName() + ": "
+					+ e.toString());
+			tmpFile.delete();
+		} finally {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		pruneFiles();
+	}
+
+	private void writeFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.position(0);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private void pruneFiles() {
+		File[] files = this.mDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		int count = 0;
+		for (int i = 0; i < files.length; i++) {
+			if (isCacheFile(files[i])) {
+				count++;
+			}
+		}
+		while (count > MAX_FILES) {
+			File oldest = null;
+			for (int i = 0; i < files.length; i++) {
+				if ((files[i] != null)
+						&& (isCacheFile(files[i]))
+						&& ((oldest == null) || (files[i].lastModified() < oldest
+								.lastModified()))) {
+					oldest = files[i];
+				}
+			}
+			if (oldest == null) {
+				return;
+			}
+			oldest.delete();
+			for (int i = 0; i < files.length; i++) {
+				if (files[i] == oldest) {
+					files[i] = null;
+				}
+			}
+			count--;
+		}
+	}
+
+	private boolean isCacheFile(File file) {
+		String name = file.getName();
+		return (name.startsWith(FILE_PREFIX)) && (name.endsWith(FILE_SUFFIX));
+	}
+}
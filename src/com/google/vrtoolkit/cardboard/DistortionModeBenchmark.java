@@ -0,0 +1,85 @@
+package com.google.vrtoolkit.cardboard;
+
+import android.util.Log;
+
+class DistortionModeBenchmark implements FrameMetrics.Listener {
+	private static final String TAG = "DistortionModeBenchmark";
+	private static final int[] MODES = {
+			DistortionRenderer.CorrectionMode.MESH,
+			DistortionRenderer.CorrectionMode.PER_PIXEL };
+	private static final String[] MODE_NAMES = { "mesh", "per-pixel" };
+	private static final int WARMUP_FRAMES = 30;
+	private static final int ROUNDS = 3;
+	private final CardboardView mCardboardView;
+	private final int mInitialMode;
+	private FrameMetrics.Listener mInitialListener;
+	private boolean mInitialEnabled;
+	private int mRound;
+	private int mModeIndex;
+	private int mFramesInMode;
+	private boolean mFinished;
+
+	DistortionModeBenchmark(CardboardView cardboardView) {
+		this.mCardboardView = cardboardView;
+		this.mInitialMode = cardboardView.getDistortionCorrectionMode();
+	}
+
+	void start() {
+		this.mRound = 0;
+		this.mModeIndex = 0;
+		this.mFramesInMode = 0;
+		this.mFinished = false;
+		FrameMetrics metrics = this.mCardboardView.getFrameMetrics();
+		this.mInitialListener = metrics.getListener();
+		this.mInitialEnabled = metrics.isEnabled();
+		this.mCardboardView.setDistortionCorrectionMode(MODES[0]);
+		metrics.reset();
+		metrics.setListener(this);
+		metrics.setEnabled(true);
+	}
+
+	public void onFrameMetrics(FrameMetrics frameMetrics) {
+		if (this.mFinished) {
+			return;
+		}
+		this.mFramesInMode++;
+		if (this.mFramesInMode == WARMUP_FRAMES) {
+			frameMetrics.reset();
+			return;
+		}
+		if (this.mFramesInMode < WARMUP_FRAMES + frameMetrics.getCapacity()) {
+			return;
+		}
+		Log.i(TAG, "round " + this.mRound + " "
+				+ MODE_NAMES[this.mModeIndex] + ": gpu distortion "
+				+ format(frameMetrics, FrameMetrics.GPU_DISTORTION)
+				+ ", cpu distortion "
+				+ format(frameMetrics, FrameMetrics.DISTORTION) + ", frame "
+				+ format(frameMetrics, FrameMetrics.FRAME));
+		this.mFramesInMode = 0;
+		this.mModeIndex = (this.mModeIndex + 1) % MODES.length;
+		if (this.mModeIndex == 0) {
+			this.mRound++;
+		}
+		if (this.mRound == ROUNDS) {
+			this.mFinished = true;
+			frameMetrics.reset();
+			frameMetrics.setEnabled(this.mInitialEnabled);
+			frameMetrics.setListener(this.mInitialListener);
+			this.mCardboardView
+					.setDistortionCorrectionMode(this.mInitialMode);
+			return;
+		}
+		this.mCardboardView
+				.setDistortionCorrectionMode(MODES[this.mModeIndex]);
+	}
+
+	private static String format(FrameMetrics frameMetrics, int stage) {
+		long p50 = frameMetrics.getPercentile(stage, 50.0F);
+		long p90 = frameMetrics.getPercentile(stage, 90.0F);
+		if (p50 < 0L) {
+			return "n/a";
+		}
+		return "p50 " + p50 / 1000L + " us / p90 " + p90 / 1000L + " us";
+	}
+}
@@ -1,55 +1,237 @@
 package com.google.vrtoolkit.cardboard;
 
 import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
 import android.util.Log;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DistortionRenderer {
 	private static final String TAG = "DistortionRenderer";
+	private static final float MESH_MAX_ERROR_PX = 0.5F;
+	private static final int MESH_MIN_DIVISIONS = 4;
+	private static final int MESH_MAX_LINES = 128;
+	private static final int MESH_MAX_REFINEMENTS = 16;
+	private static final float VIGNETTE_SIZE_M_SCREEN = 0.0020F;
+	private static final float PACKED_POSITION_RANGE = 2.0F;
+	private static final int MAX_PER_PIXEL_COEFFICIENTS = 8;
+	private static final int HIDDEN_AREA_SEGMENTS = 64;
+	private static final int HIDDEN_AREA_SUBDIVISIONS = 8;
+	private static final float HIDDEN_AREA_MARGIN = 0.01F;
+	private static final int PROGRAM_CHROMATIC = 1;
+	private static final int PROGRAM_MULTI_RES = 2;
+	private static final int PROGRAM_TIMEWARP = 4;
+	private static final int PROGRAM_VARIANTS = 8;
+	private static final int MULTI_RES_REGIONS = 9;
 	private int mTextureId;
 	private int mRenderbufferId;
 	private int mFramebufferId;
-	private IntBuffer mOriginalFramebufferId;
-	private IntBuffer mCullFaceEnabled;
-	private IntBuffer mScissorTestEnabled;
-	private IntBuffer mViewport;
+	private int mOriginalFramebufferId;
+	private boolean mInvalidateFramebufferSupported;
+	private boolean mStencilBufferAttached;
+	private int[] mDiscardAttachments;
+	private int mTextureWidthPx;
+	private int mTextureHeightPx;
+	private boolean mHiddenAreaMaskEnabled;
+	private boolean mHiddenAreaMaskActive;
+	private boolean mStencilTestEnabled;
+	private final int[] mSavedViewport;
+	private final boolean[] mSavedColorMask;
+	private boolean mSavedDepthMask;
+	private int mSavedStencilMask;
+	private float mLensRadiusMTexture;
+	private int mHiddenAreaBufferId;
+	private int mHiddenAreaVertexCount;
+	private boolean mHiddenAreaChanged;
+	private boolean mMultiResolutionEnabled;
+	private boolean mMultiResolutionActive;
+	private float mMultiResolutionCenterRatio;
+	private float mMultiResolutionSurroundScale;
+	private final MultiResolutionLayout mLeftMultiResolutionLayout;
+	private final MultiResolutionLayout mRightMultiResolutionLayout;
+	private boolean mTimewarpEnabled;
+	private boolean mTimewarpActive;
+	private float mEyeToScreenDistanceM;
+	private final float[] mTimewarpRotation;
+	private boolean mTimewarpRotationSet;
+	private boolean mEyeBuffersValid;
+	private boolean mEyeBuffersMultiResolution;
+	private final GpuTimer mGpuTimer;
+	private boolean mGpuTimingEnabled;
+	private final GLStateTracker mGLState;
 	private float mResolutionScale;
-	private DistortionMesh mLeftEyeDistortionMesh;
-	private DistortionMesh mRightEyeDistortionMesh;
+	private DistortionMesh mDistortionMesh;
 	private HeadMountedDisplay mHmd;
+	private Distortion mDistortion;
+	private Distortion mRedDistortion;
+	private Distortion mBlueDistortion;
+	private final Object mInverseDistortionLock;
+	private Distortion mInverseDistortionSource;
+	private Distortion mInverseDistortion;
+	private float mInverseDistortionMaxRadius;
+	private EyeViewport mLeftEyeViewport;
+	private EyeViewport mRightEyeViewport;
+	private float mTextureWidthM;
+	private float mTextureHeightM;
 	private FieldOfView mLeftEyeFov;
 	private FieldOfView mRightEyeFov;
-	private ProgramHolder mProgramHolder;
-	private final String VERTEX_SHADER = "attribute vec2 aPosition;\nattribute float aVignette;\nattribute vec2 aTextureCoord;\nvarying vec2 vTextureCoord;\nvarying float vVignette;\nuniform float uTextureCoordScale;\nvoid main() {\n gl_Position = vec4(aPosition, 0.0, 1.0);\n vTextureCoord = aTextureCoord.xy * uTextureCoordScale;\n vVignette = aVignette;\n}\n";
-	private final String FRAGMENT_SHADER = "precision mediump float;\nvarying vec2 vTextureCoord;\nvarying float vVignette;\nuniform sampler2D uTextureSampler;\nvoid main() {\n gl_FragColor = vVignette * texture2D(uTextureSampler, vTextureCoord);\n}\n";
+	private final ProgramHolder[] mProgramHolders;
+	private final PerPixelProgramHolder[] mPerPixelProgramHolders;
+	private HiddenAreaProgramHolder mHiddenAreaProgramHolder;
+	private int mCorrectionMode;
+	private boolean mPerPixelSupported;
+	private int mQuadBufferId;
+	private float mXEyeOffsetMScreen;
+	private float mYEyeOffsetMScreen;
+	private final float[] mCoefficients;
+	private final float[] mRedCoefficients;
+	private final float[] mBlueCoefficients;
+	private final DistortionMeshCache mMeshCache;
+	private final Executor mMeshExecutor;
+	private final AtomicReference<DistortionMeshRequest> mCompletedMeshRequest;
+	private volatile int mMeshGeneration;
+	private final String VERTEX_SHADER = "attribute vec2 aPosition;\nattribute float aVignette;\nattribute float aEye;\nattribute vec2 aTextureCoord;\nvarying vec2 vTextureCoord;\nvarying float vVignette;\nuniform vec2 uTextureCoordScale;\nuniform vec2 uLeftTextureCoordOffset;\nuniform vec2 uRightTextureCoordOffset;\n#ifdef MULTI_RES\nuniform vec4 uLeftMultiResOrigin;\nuniform vec4 uRightMultiResOrigin;\nuniform vec4 uLeftMultiResCenter;\nuniform vec4 uRightMultiResCenter;\nvarying vec4 vMultiResOrigin;\nvarying vec4 vMultiResCenter;\n#endif\n#ifdef TIMEWARP\nuniform mat3 uTimewarpRotation;\nuniform vec2 uLeftEyeCenter;\nuniform vec2 uRightEyeCenter;\nuniform vec2 uTanAngleScale;\nvec2 timewarp(vec2 coord, vec2 eyeCenter) {\n vec3 dir = uTimewarpRotation * vec3((coord - eyeCenter) * uTanAngleScale, -1.0);\n return eyeCenter - dir.xy / (dir.z * uTanAngleScale);\n}\n#else\n#define timewarp(coord, eyeCenter) (coord)\n#endif\nvoid main() {\n gl_Position = vec4(aPosition * 2.0, 0.0, 1.0);\n vec2 offset = mix(uLeftTextureCoordOffset, uRightTextureCoordOffset, aEye);\n#ifdef TIMEWARP\n vec2 eyeCenter = mix(uLeftEyeCenter, uRightEyeCenter, aEye);\n#endif\n vTextureCoord = timewarp(aTextureCoord.xy * uTextureCoordScale + offset, eyeCenter);\n vVignette = aVignette;\n#ifdef MULTI_RES\n vMultiResOrigin = mix(uLeftMultiResOrigin, uRightMultiResOrigin, aEye);\n vMultiResCenter = mix(uLeftMultiResCenter, uRightMultiResCenter, aEye);\n#endif\n}\n";
+	private final String FRAGMENT_SHADER = "precision mediump float;\nvarying vec2 vTextureCoord;\nvarying float vVignette;\nuniform sampler2D uTextureSampler;\n#ifdef MULTI_RES\nvarying vec4 vMultiResOrigin;\nvarying vec4 vMultiResCenter;\nuniform float uMultiResSurroundScale;\nvec2 multiResCoord(vec2 coord) {\n return vMultiResOrigin.zw + clamp(coord, vMultiResCenter.xy, vMultiResCenter.zw)\n   - vMultiResCenter.xy + uMultiResSurroundScale * (min(coord, vMultiResCenter.xy)\n   - vMultiResOrigin.xy + max(coord, vMultiResCenter.zw) - vMultiResCenter.zw);\n}\n#else\n#define multiResCoord(coord) (coord)\n#endif\nvoid main() {\n gl_FragColor = vVignette * texture2D(uTextureSampler, multiResCoord(vTextureCoord));\n}\n";
+	private final String CHROMATIC_VERTEX_SHADER = "attribute vec2 aPosition;\nattribute float aVignette;\nattribute float aEye;\nattribute vec2 aRedTextureCoord;\nattribute vec2 aTextureCoord;\nattribute vec2 aBlueTextureCoord;\nvarying vec2 vRedTextureCoord;\nvarying vec2 vTextureCoord;\nvarying vec2 vBlueTextureCoord;\nvarying float vVignette;\nuniform vec2 uTextureCoordScale;\nuniform vec2 uLeftTextureCoordOffset;\nuniform vec2 uRightTextureCoordOffset;\n#ifdef MULTI_RES\nuniform vec4 uLeftMultiResOrigin;\nuniform vec4 uRightMultiResOrigin;\nuniform vec4 uLeftMultiResCenter;\nuniform vec4 uRightMultiResCenter;\nvarying vec4 vMultiResOrigin;\nvarying vec4 vMultiResCenter;\n#endif\n#ifdef TIMEWARP\nuniform mat3 uTimewarpRotation;\nuniform vec2 uLeftEyeCenter;\nuniform vec2 uRightEyeCenter;\nuniform vec2 uTanAngleScale;\nvec2 timewarp(vec2 coord, vec2 eyeCenter) {\n vec3 dir = uTimewarpRotation * vec3((coord - eyeCenter) * uTanAngleScale, -1.0);\n return eyeCenter - dir.xy / (dir.z * uTanAngleScale);\n}\n#else\n#define timewarp(coord, eyeCenter) (coord)\n#endif\nvoid main() {\n gl_Position = vec4(aPosition * 2.0, 0.0, 1.0);\n vec2 offset = mix(uLeftTextureCoordOffset, uRightTextureCoordOffset, aEye);\n#ifdef TIMEWARP\n vec2 eyeCenter = mix(uLeftEyeCenter, uRightEyeCenter, aEye);\n#endif\n vRedTextureCoord = timewarp(aRedTextureCoord.xy * uTextureCoordScale + offset, eyeCenter);\n vTextureCoord = timewarp(aTextureCoord.xy * uTextureCoordScale + offset, eyeCenter);\n vBlueTextureCoord = timewarp(aBlueTextureCoord.xy * uTextureCoordScale + offset, eyeCenter);\n vVignette = aVignette;\n#ifdef MULTI_RES\n vMultiResOrigin = mix(uLeftMultiResOrigin, uRightMultiResOrigin, aEye);\n vMultiResCenter = mix(uLeftMultiResCenter, uRightMultiResCenter, aEye);\n#endif\n}\n";
+	private final String PER_PIXEL_VERTEX_SHADER = "attribute vec2 aPosition;\nattribute float aEye;\nvarying vec2 vScreenEye;\nvarying vec2 vEyeTexture;\nvarying vec4 vViewport;\nuniform vec2 uScreenSize;\nuniform vec2 uLeftLensCenter;\nuniform vec2 uRightLensCenter;\nuniform vec2 uLeftEyeTexture;\nuniform vec2 uRightEyeTexture;\nuniform vec4 uLeftViewport;\nuniform vec4 uRightViewport;\n#ifdef MULTI_RES\nuniform vec4 uLeftMultiResOrigin;\nuniform vec4 uRightMultiResOrigin;\nuniform vec4 uLeftMultiResCenter;\nuniform vec4 uRightMultiResCenter;\nvarying vec4 vMultiResOrigin;\nvarying vec4 vMultiResCenter;\n#endif\nvoid main() {\n gl_Position = vec4(aPosition, 0.0, 1.0);\n vScreenEye = (aPosition * 0.5 + 0.5) * uScreenSize\n   - mix(uLeftLensCenter, uRightLensCenter, aEye);\n vEyeTexture = mix(uLeftEyeTexture, uRightEyeTexture, aEye);\n vViewport = mix(uLeftViewport, uRightViewport, aEye);\n#ifdef MULTI_RES\n vMultiResOrigin = mix(uLeftMultiResOrigin, uRightMultiResOrigin, aEye);\n vMultiResCenter = mix(uLeftMultiResCenter, uRightMultiResCenter, aEye);\n#endif\n}\n";
+	private final String PER_PIXEL_FRAGMENT_SHADER = "#ifdef GL_FRAGMENT_PRECISION_HIGH\nprecision highp float;\n#else\nprecision mediump float;\n#endif\nvarying vec2 vScreenEye;\nvarying vec2 vEyeTexture;\nvarying vec4 vViewport;\nuniform vec4 uCoefficients[2];\nuniform vec2 uTextureCoordScale;\nuniform float uVignetteSize;\nuniform sampler2D uTextureSampler;\n#ifdef MULTI_RES\nvarying vec4 vMultiResOrigin;\nvarying vec4 vMultiResCenter;\nuniform float uMultiResSurroundScale;\nvec2 multiResCoord(vec2 coord) {\n return vMultiResOrigin.zw + clamp(coord, vMultiResCenter.xy, vMultiResCenter.zw)\n   - vMultiResCenter.xy + uMultiResSurroundScale * (min(coord, vMultiResCenter.xy)\n   - vMultiResOrigin.xy + max(coord, vMultiResCenter.zw) - vMultiResCenter.zw);\n}\n#else\n#define multiResCoord(coord) (coord)\n#endif\n#ifdef TIMEWARP\nuniform mat3 uTimewarpRotation;\nuniform float uEyeToScreenDistance;\nvec2 timewarp(vec2 coord) {\n vec3 dir = uTimewarpRotation * vec3((coord - vEyeTexture) / uEyeToScreenDistance, -1.0);\n return vEyeTexture - dir.xy / dir.z * uEyeToScreenDistance;\n}\n#else\n#define timewarp(coord) (coord)\n#endif\nfloat distortionFactor(vec4 k0, vec4 k1, float rSq) {\n return 1.0 + rSq * (k0.x + rSq * (k0.y + rSq * (k0.z + rSq * (k0.w\n   + rSq * (k1.x + rSq * (k1.y + rSq * (k1.z + rSq * k1.w)))))));\n}\nvoid main() {\n float rSq = dot(vScreenEye, vScreenEye);\n float factor = distortionFactor(uCoefficients[0], uCoefficients[1], rSq);\n vec2 tex = timewarp(vScreenEye * factor + vEyeTexture);\n float vignetteSize = uVignetteSize * factor;\n vec2 edge = max(max(vViewport.xy + vignetteSize - tex,\n   tex - vViewport.xy - vViewport.zw + vignetteSize), 0.0);\n float vignette = 1.0 - clamp(length(edge) / vignetteSize, 0.0, 1.0);\n gl_FragColor = vignette * texture2D(uTextureSampler, multiResCoord(tex * uTextureCoordScale));\n}\n";
+	private final String CHROMATIC_PER_PIXEL_FRAGMENT_SHADER = "#ifdef GL_FRAGMENT_PRECISION_HIGH\nprecision highp float;\n#else\nprecision mediump float;\n#endif\nvarying vec2 vScreenEye;\nvarying vec2 vEyeTexture;\nvarying vec4 vViewport;\nuniform vec4 uCoefficients[2];\nuniform vec4 uRedCoefficients[2];\nuniform vec4 uBlueCoefficients[2];\nuniform vec2 uTextureCoordScale;\nuniform float uVignetteSize;\nuniform sampler2D uTextureSampler;\n#ifdef MULTI_RES\nvarying vec4 vMultiResOrigin;\nvarying vec4 vMultiResCenter;\nuniform float uMultiResSurroundScale;\nvec2 multiResCoord(vec2 coord) {\n return vMultiResOrigin.zw + clamp(coord, vMultiResCenter.xy, vMultiResCenter.zw)\n   - vMultiResCenter.xy + uMultiResSurroundScale * (min(coord, vMultiResCenter.xy)\n   - vMultiResOrigin.xy + max(coord, vMultiResCenter.zw) - vMultiResCenter.zw);\n}\n#else\n#define multiResCoord(coord) (coord)\n#endif\n#ifdef TIMEWARP\nuniform mat3 uTimewarpRotation;\nuniform float uEyeToScreenDistance;\nvec2 timewarp(vec2 coord) {\n vec3 dir = uTimewarpRotation * vec3((coord - vEyeTexture) / uEyeToScreenDistance, -1.0);\n return vEyeTexture - dir.xy / dir.z * uEyeToScreenDistance;\n}\n#else\n#define timewarp(coord) (coord)\n#endif\nfloat distortionFactor(vec4 k0, vec4 k1, float rSq) {\n return 1.0 + rSq * (k0.x + rSq * (k0.y + rSq * (k0.z + rSq * (k0.w\n   + rSq * (k1.x + rSq * (k1.y + rSq * (k1.z + rSq * k1.w)))))));\n}\nvoid main() {\n float rSq = dot(vScreenEye, vScreenEye);\n float factor = distortionFactor(uCoefficients[0], uCoefficients[1], rSq);\n float redFactor = distortionFactor(uRedCoefficients[0], uRedCoefficients[1], rSq);\n float blueFactor = distortionFactor(uBlueCoefficients[0], uBlueCoefficients[1], rSq);\n vec2 tex = timewarp(vScreenEye * factor + vEyeTexture);\n float vignetteSize = uVignetteSize * factor;\n vec2 edge = max(max(vViewport.xy + vignetteSize - tex,\n   tex - vViewport.xy - vViewport.zw + vignetteSize), 0.0);\n float vignette = 1.0 - clamp(length(edge) / vignetteSize, 0.0, 1.0);\n gl_FragColor = vignette * vec4(\n   texture2D(uTextureSampler, multiResCoord(timewarp(vScreenEye * redFactor + vEyeTexture) * uTextureCoordScale)).r,\n   texture2D(uTextureSampler, multiResCoord(tex * uTextureCoordScale)).g,\n   texture2D(uTextureSampler, multiResCoord(timewarp(vScreenEye * blueFactor + vEyeTexture) * uTextureCoordScale)).b, 1.0);\n}\n";
+	private final String HIDDEN_AREA_VERTEX_SHADER = "attribute vec2 aTextureCoord;\nuniform vec2 uTextureCoordScale;\nvoid main() {\n gl_Position = vec4(aTextureCoord * uTextureCoordScale * 2.0 - 1.0, 0.0, 1.0);\n}\n";
+	private final String HIDDEN_AREA_FRAGMENT_SHADER = "precision mediump float;\nvoid main() {\n gl_FragColor = vec4(0.0);\n}\n";
+	private final String CHROMATIC_FRAGMENT_SHADER = "precision mediump float;\nvarying vec2 vRedTextureCoord;\nvarying vec2 vTextureCoord;\nvarying vec2 vBlueTextureCoord;\nvarying float vVignette;\nuniform sampler2D uTextureSampler;\n#ifdef MULTI_RES\nvarying vec4 vMultiResOrigin;\nvarying vec4 vMultiResCenter;\nuniform float uMultiResSurroundScale;\nvec2 multiResCoord(vec2 coord) {\n return vMultiResOrigin.zw + clamp(coord, vMultiResCenter.xy, vMultiResCenter.zw)\n   - vMultiResCenter.xy + uMultiResSurroundScale * (min(coord, vMultiResCenter.xy)\n   - vMultiResOrigin.xy + max(coord, vMultiResCenter.zw) - vMultiResCenter.zw);\n}\n#else\n#define multiResCoord(coord) (coord)\n#endif\nvoid main() {\n gl_FragColor = vVignette * vec4(texture2D(uTextureSampler, multiResCoord(vRedTextureCoord)).r,\n   texture2D(uTextureSampler, multiResCoord(vTextureCoord)).g,\n   texture2D(uTextureSampler, multiResCoord(vBlueTextureCoord)).b, 1.0);\n}\n";
 
 	public DistortionRenderer() {
+		this(new DistortionMeshCache(null), new GLStateTracker());
+	}
+
+	DistortionRenderer(DistortionMeshCache meshCache, GLStateTracker glState) {
+		this.mMeshCache = meshCache;
+		this.mGLState = glState;
+		this.mMeshExecutor = new ThreadPoolExecutor(0, 1, 5L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "DistortionMesh");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.mCompletedMeshRequest = new AtomicReference<DistortionMeshRequest>();
 		this.mTextureId = -1;
 		this.mRenderbufferId = -1;
 		this.mFramebufferId = -1;
-		this.mOriginalFramebufferId = IntBuffer.allocate(1);
-		this.mCullFaceEnabled = IntBuffer.allocate(1);
-		this.mScissorTestEnabled = IntBuffer.allocate(1);
-		this.mViewport = IntBuffer.allocate(4);
+		this.mQuadBufferId = -1;
+		this.mHiddenAreaBufferId = -1;
+		this.mDiscardAttachments = new int[] { 36096 };
+		this.mSavedViewport = new int[4];
+		this.mSavedColorMask = new boolean[4];
+		this.mInverseDistortionLock = new Object();
+		this.mLeftMultiResolutionLayout = new MultiResolutionLayout();
+		this.mRightMultiResolutionLayout = new MultiResolutionLayout();
+		this.mMultiResolutionCenterRatio = 0.5F;
+		this.mMultiResolutionSurroundScale = 0.5F;
+		this.mProgramHolders = new ProgramHolder[PROGRAM_VARIANTS];
+		this.mPerPixelProgramHolders = new PerPixelProgramHolder[PROGRAM_VARIANTS];
+		this.mTimewarpRotation = new float[] { 1.0F, 0.0F, 0.0F, 0.0F, 1.0F,
+				0.0F, 0.0F, 0.0F, 1.0F };
+		this.mGpuTimer = new GpuTimer();
+		this.mCoefficients = new float[MAX_PER_PIXEL_COEFFICIENTS];
+		this.mRedCoefficients = new float[MAX_PER_PIXEL_COEFFICIENTS];
+		this.mBlueCoefficients = new float[MAX_PER_PIXEL_COEFFICIENTS];
 
 		this.mResolutionScale = 1.0F;
 	}
 
+	public static class CorrectionMode {
+		public static final int MESH = 0;
+		public static final int PER_PIXEL = 1;
+	}
+
 	private class ProgramHolder {
 		public int program;
 		public int aPosition;
 		public int aVignette;
+		public int aEye;
 		public int aTextureCoord;
+		public int aRedTextureCoord;
+		public int aBlueTextureCoord;
 		public int uTextureCoordScale;
+		public int uLeftTextureCoordOffset;
+		public int uRightTextureCoordOffset;
 		public int uTextureSampler;
+		public int uLeftMultiResOrigin;
+		public int uRightMultiResOrigin;
+		public int uLeftMultiResCenter;
+		public int uRightMultiResCenter;
+		public int uMultiResSurroundScale;
+		public int uTimewarpRotation;
+		public int uLeftEyeCenter;
+		public int uRightEyeCenter;
+		public int uTanAngleScale;
 
 		private ProgramHolder() {
 		}
 	}
 
+	private class PerPixelProgramHolder {
+		public int program;
+		public int aPosition;
+		public int aEye;
+		public int uScreenSize;
+		public int uLeftLensCenter;
+		public int uRightLensCenter;
+		public int uLeftEyeTexture;
+		public int uRightEyeTexture;
+		public int uLeftViewport;
+		public int uRightViewport;
+		public int uCoefficients;
+		public int uRedCoefficients;
+		public int uBlueCoefficients;
+		public int uTextureCoordScale;
+		public int uVignetteSize;
+		public int uTextureSampler;
+		public int uLeftMultiResOrigin;
+		public int uRightMultiResOrigin;
+		public int uLeftMultiResCenter;
+		public int uRightMultiResCenter;
+		public int uMultiResSurroundScale;
+		public int uTimewarpRotation;
+		public int uEyeToScreenDistance;
+
+		private PerPixelProgramHolder() {
+		}
+	}
+
+	private class MultiResolutionLayout {
+		public final float[] x;
+		public final float[] y;
+		public final float[] packedX;
+		public final float[] packedY;
+
+		private MultiResolutionLayout() {
+			this.x = new float[4];
+			this.y = new float[4];
+			this.packedX = new float[4];
+			this.packedY = new float[4];
+		}
+	}
+
+	private class HiddenAreaProgramHolder {
+		public int program;
+		public int aTextureCoord;
+		public int uTextureCoordScale;
+
+		private HiddenAreaProgramHolder() {
+		}
+	}
+
 	private class EyeViewport {
 		public float x;
 		public float y;
@@ -69,58 +251,293 @@ public class DistortionRenderer {
 	}
 
 	public void beforeDrawFrame() {
-		GLES20.glGetIntegerv(36006, this.mOriginalFramebufferId);
-		GLES20.glBindFramebuffer(36160, this.mFramebufferId);
-	}
-
-	public void afterDrawFrame() {
-		GLES20.glBindFramebuffer(36160, this.mOriginalFramebufferId.array()[0]);
-		GLES20.glViewport(0, 0, this.mHmd.getScreen().getWidth(), this.mHmd
-				.getScreen().getHeight());
-
-		GLES20.glGetIntegerv(2978, this.mViewport);
-		GLES20.glGetIntegerv(2884, this.mCullFaceEnabled);
-		GLES20.glGetIntegerv(3089, this.mScissorTestEnabled);
-		GLES20.glDisable(3089);
-		GLES20.glDisable(2884);
+		this.mGLState.validate("beforeDrawFrame");
+		this.mOriginalFramebufferId = this.mGLState.getFramebuffer();
+		this.mGLState.bindFramebuffer(this.mFramebufferId);
+		if (this.mGpuTimingEnabled) {
+			this.mGpuTimer.beginFrame();
+			this.mGpuTimer.begin(GpuTimer.EYES);
+		}
 
+		boolean scissorTestEnabled = this.mGLState.isEnabled(3089);
+		this.mGLState.setEnabled(3089, false);
+		enableWriteMasks();
 		GLES20.glClearColor(0.0F, 0.0F, 0.0F, 1.0F);
-		GLES20.glClear(16640);
+		this.mMultiResolutionActive = this.mMultiResolutionEnabled;
+		this.mHiddenAreaMaskActive = (this.mHiddenAreaMaskEnabled)
+				&& (this.mStencilBufferAttached)
+				&& (!this.mMultiResolutionActive);
+		if (this.mHiddenAreaMaskActive) {
+			GLES20.glClear(17664);
+			this.mGLState.invalidateViewport();
+			this.mGLState.invalidateEnabled(2884);
+			this.mGLState.invalidateEnabled(2929);
+			this.mGLState.invalidateEnabled(2960);
+			this.mStencilTestEnabled = this.mGLState.isEnabled(2960);
+			renderHiddenAreaMask();
+		} else {
+			GLES20.glClear(this.mStencilBufferAttached ? 17664 : 16640);
+		}
+		restoreWriteMasks();
+		this.mGLState.setEnabled(3089, scissorTestEnabled);
+	}
 
-		GLES20.glUseProgram(this.mProgramHolder.program);
+	public void afterDrawFrame() {
+		this.mGpuTimer.end(GpuTimer.EYES);
+		if (this.mInvalidateFramebufferSupported) {
+			GLES30.glInvalidateFramebuffer(36160,
+					this.mDiscardAttachments.length, this.mDiscardAttachments,
+					0);
+		}
+		this.mEyeBuffersValid = true;
+		this.mEyeBuffersMultiResolution = this.mMultiResolutionActive;
+		renderDistortion((this.mTimewarpEnabled)
+				&& (this.mTimewarpRotationSet), "afterDrawFrame");
+	}
 
-		GLES20.glEnable(3089);
-		GLES20.glScissor(0, 0, this.mHmd.getScreen().getWidth() / 2, this.mHmd
-				.getScreen().getHeight());
+	public boolean reprojectLastFrame() {
+		if ((!this.mEyeBuffersValid) || (!this.mTimewarpRotationSet)) {
+			this.mTimewarpRotationSet = false;
+			return false;
+		}
+		this.mGLState.validate("reprojectLastFrame");
+		this.mOriginalFramebufferId = this.mGLState.getFramebuffer();
+		this.mMultiResolutionActive = this.mEyeBuffersMultiResolution;
+		if (this.mGpuTimingEnabled) {
+			this.mGpuTimer.beginFrame();
+		}
+		renderDistortion(true, "reprojectLastFrame");
+		return true;
+	}
 
-		renderDistortionMesh(this.mLeftEyeDistortionMesh);
+	private void renderDistortion(boolean timewarp, String where) {
+		swapCompletedDistortionMeshes();
 
-		GLES20.glScissor(this.mHmd.getScreen().getWidth() / 2, 0, this.mHmd
-				.getScreen().getWidth() / 2, this.mHmd.getScreen().getHeight());
+		this.mGLState.bindFramebuffer(this.mOriginalFramebufferId);
+		this.mGLState.setViewport(0, 0, this.mHmd.getScreen().getWidth(),
+				this.mHmd.getScreen().getHeight());
+		this.mGpuTimer.begin(GpuTimer.DISTORTION);
 
-		renderDistortionMesh(this.mRightEyeDistortionMesh);
+		boolean cullFaceEnabled = this.mGLState.isEnabled(2884);
+		boolean scissorTestEnabled = this.mGLState.isEnabled(3089);
+		this.mGLState.setEnabled(3089, false);
+		this.mGLState.setEnabled(2884, false);
+		if (this.mHiddenAreaMaskActive) {
+			this.mGLState.setEnabled(2960, false);
+		}
+		enableWriteMasks();
 
-		GLES20.glDisableVertexAttribArray(this.mProgramHolder.aPosition);
-		GLES20.glDisableVertexAttribArray(this.mProgramHolder.aVignette);
-		GLES20.glDisableVertexAttribArray(this.mProgramHolder.aTextureCoord);
+		GLES20.glClearColor(0.0F, 0.0F, 0.0F, 1.0F);
+		GLES20.glClear(16640);
+		this.mTimewarpActive = timewarp;
+		if ((this.mCorrectionMode == CorrectionMode.PER_PIXEL)
+				&& (this.mPerPixelSupported)) {
+			renderPerPixel();
+		} else {
+			ProgramHolder holder = getProgramHolder(getProgramFlags(this.mDistortionMesh.mChromatic));
+			GLES20.glUseProgram(holder.program);
+
+			renderDistortionMesh(this.mDistortionMesh, holder);
+
+			GLES20.glDisableVertexAttribArray(holder.aPosition);
+			GLES20.glDisableVertexAttribArray(holder.aVignette);
+			GLES20.glDisableVertexAttribArray(holder.aEye);
+			GLES20.glDisableVertexAttribArray(holder.aTextureCoord);
+			if (this.mDistortionMesh.mChromatic) {
+				GLES20.glDisableVertexAttribArray(holder.aRedTextureCoord);
+				GLES20.glDisableVertexAttribArray(holder.aBlueTextureCoord);
+			}
+		}
 		GLES20.glUseProgram(0);
 		GLES20.glBindBuffer(34962, 0);
 		GLES20.glBindBuffer(34963, 0);
-		GLES20.glDisable(3089);
-		if (this.mCullFaceEnabled.array()[0] == 1) {
-			GLES20.glEnable(2884);
+		restoreWriteMasks();
+		if (cullFaceEnabled) {
+			this.mGLState.setEnabled(2884, true);
 		}
-		if (this.mScissorTestEnabled.array()[0] == 1) {
-			GLES20.glEnable(3089);
+		this.mGLState.setEnabled(3089, scissorTestEnabled);
+		if (this.mHiddenAreaMaskActive) {
+			this.mGLState.setEnabled(2960, this.mStencilTestEnabled);
+			this.mHiddenAreaMaskActive = false;
 		}
-		GLES20.glViewport(this.mViewport.array()[0], this.mViewport.array()[1],
-				this.mViewport.array()[2], this.mViewport.array()[3]);
+		this.mMultiResolutionActive = false;
+		this.mTimewarpActive = false;
+		this.mTimewarpRotationSet = false;
+		this.mGpuTimer.end(GpuTimer.DISTORTION);
+		this.mGpuTimer.endFrame();
+		this.mGLState.validate(where);
+	}
+
+	private void enableWriteMasks() {
+		this.mGLState.getColorMask(this.mSavedColorMask, 0);
+		this.mSavedDepthMask = this.mGLState.getDepthMask();
+		this.mSavedStencilMask = this.mGLState.getStencilMask();
+		this.mGLState.setColorMask(true, true, true, true);
+		this.mGLState.setDepthMask(true);
+		this.mGLState.setStencilMask(255);
+	}
+
+	private void restoreWriteMasks() {
+		this.mGLState.setColorMask(this.mSavedColorMask[0],
+				this.mSavedColorMask[1], this.mSavedColorMask[2],
+				this.mSavedColorMask[3]);
+		this.mGLState.setDepthMask(this.mSavedDepthMask);
+		this.mGLState.setStencilMask(this.mSavedStencilMask);
 	}
 
 	public void setResolutionScale(float scale) {
+		if (scale != this.mResolutionScale) {
+			this.mEyeBuffersValid = false;
+		}
 		this.mResolutionScale = scale;
 	}
 
+	public void setGpuTimingEnabled(boolean enabled) {
+		this.mGpuTimingEnabled = enabled;
+	}
+
+	public boolean getGpuTimingEnabled() {
+		return this.mGpuTimingEnabled;
+	}
+
+	public boolean isGpuTimingSupported() {
+		return this.mGpuTimer.isSupported();
+	}
+
+	GpuTimer getGpuTimer() {
+		return this.mGpuTimer;
+	}
+
+	public void setTimewarpEnabled(boolean enabled) {
+		this.mTimewarpEnabled = enabled;
+	}
+
+	public boolean getTimewarpEnabled() {
+		return this.mTimewarpEnabled;
+	}
+
+	public void setTimewarpHeadViews(float[] renderHeadView,
+			int renderOffset, float[] displayHeadView, int displayOffset) {
+		if ((renderOffset + 16 > renderHeadView.length)
+				|| (displayOffset + 16 > displayHeadView.length)) {
+			throw new IllegalArgumentException(
+					"Not enough space to read the head views");
+		}
+		for (int col = 0; col < 3; col++) {
+			for (int row = 0; row < 3; row++) {
+				float sum = 0.0F;
+				for (int k = 0; k < 3; k++) {
+					sum += renderHeadView[(renderOffset + k * 4 + row)]
+							* displayHeadView[(displayOffset + k * 4 + col)];
+				}
+				this.mTimewarpRotation[(col * 3 + row)] = sum;
+			}
+		}
+		this.mTimewarpRotationSet = true;
+	}
+
+	public void setHiddenAreaMaskEnabled(boolean enabled) {
+		if (this.mHiddenAreaMaskEnabled == enabled) {
+			return;
+		}
+		this.mHiddenAreaMaskEnabled = enabled;
+		if ((enabled) && (this.mFramebufferId != -1)
+				&& (!this.mStencilBufferAttached)) {
+			setupRenderTextureAndRenderbuffer(this.mTextureWidthPx,
+					this.mTextureHeightPx);
+		}
+	}
+
+	public boolean getHiddenAreaMaskEnabled() {
+		return this.mHiddenAreaMaskEnabled;
+	}
+
+	public void setMultiResolutionEnabled(boolean enabled) {
+		this.mMultiResolutionEnabled = enabled;
+	}
+
+	public boolean getMultiResolutionEnabled() {
+		return this.mMultiResolutionEnabled;
+	}
+
+	public void setMultiResolutionRatios(float centerRatio, float surroundScale) {
+		if ((!(centerRatio > 0.0F)) || (!(centerRatio <= 1.0F))) {
+			throw new IllegalArgumentException("Invalid center ratio: "
+					+ centerRatio);
+		}
+		if ((!(surroundScale > 0.0F)) || (!(surroundScale <= 1.0F))) {
+			throw new IllegalArgumentException("Invalid surround scale: "
+					+ surroundScale);
+		}
+		this.mMultiResolutionCenterRatio = centerRatio;
+		this.mMultiResolutionSurroundScale = surroundScale;
+		if (this.mLeftEyeViewport != null) {
+			updateMultiResolutionLayouts();
+		}
+		this.mEyeBuffersValid = false;
+	}
+
+	public float getMultiResolutionCenterRatio() {
+		return this.mMultiResolutionCenterRatio;
+	}
+
+	public float getMultiResolutionSurroundScale() {
+		return this.mMultiResolutionSurroundScale;
+	}
+
+	boolean isMultiResolutionActive() {
+		return this.mMultiResolutionActive;
+	}
+
+	boolean getMultiResolutionRegion(int eye, int region, Viewport viewport,
+			float[] bounds, int offset) {
+		if (offset + 4 > bounds.length) {
+			throw new IllegalArgumentException(
+					"Not enough space to write the result");
+		}
+		if ((region < 0) || (region >= MULTI_RES_REGIONS)) {
+			throw new IllegalArgumentException("Invalid region: " + region);
+		}
+		MultiResolutionLayout layout = eye == EyeParams.Eye.RIGHT ? this.mRightMultiResolutionLayout
+				: this.mLeftMultiResolutionLayout;
+		int column = region % 3;
+		int row = region / 3;
+		float xPxPerM = this.mResolutionScale * this.mTextureWidthPx
+				/ this.mTextureWidthM;
+		float yPxPerM = this.mResolutionScale * this.mTextureHeightPx
+				/ this.mTextureHeightM;
+		int left = Math.round(layout.packedX[column] * xPxPerM);
+		int right = Math.round(layout.packedX[(column + 1)] * xPxPerM);
+		int bottom = Math.round(layout.packedY[row] * yPxPerM);
+		int top = Math.round(layout.packedY[(row + 1)] * yPxPerM);
+		if ((right <= left) || (top <= bottom)) {
+			return false;
+		}
+		viewport.setViewport(left, bottom, right - left, top - bottom);
+
+		float width = layout.x[3] - layout.x[0];
+		float height = layout.y[3] - layout.y[0];
+		bounds[offset] = (2.0F * (layout.x[column] - layout.x[0]) / width - 1.0F);
+		bounds[(offset + 1)] = (2.0F * (layout.x[(column + 1)] - layout.x[0])
+				/ width - 1.0F);
+		bounds[(offset + 2)] = (2.0F * (layout.y[row] - layout.y[0]) / height - 1.0F);
+		bounds[(offset + 3)] = (2.0F * (layout.y[(row + 1)] - layout.y[0])
+				/ height - 1.0F);
+		return true;
+	}
+
+	public void setCorrectionMode(int mode) {
+		if ((mode != CorrectionMode.MESH) && (mode != CorrectionMode.PER_PIXEL)) {
+			throw new IllegalArgumentException("Invalid correction mode: "
+					+ mode);
+		}
+		this.mCorrectionMode = mode;
+	}
+
+	public int getCorrectionMode() {
+		return this.mCorrectionMode;
+	}
+
 	public void onProjectionChanged(HeadMountedDisplay hmd, EyeParams leftEye,
 			EyeParams rightEye, float zNear, float zFar) {
 		this.mHmd = new HeadMountedDisplay(hmd);
@@ -129,8 +546,25 @@ public class DistortionRenderer {
 
 		ScreenParams screen = this.mHmd.getScreen();
 		CardboardDeviceParams cdp = this.mHmd.getCardboard();
-		if (this.mProgramHolder == null) {
-			this.mProgramHolder = createProgramHolder();
+		if (!cdp.getDistortion().equals(this.mDistortion)) {
+			this.mDistortion = new Distortion(cdp.getDistortion());
+		}
+		if (cdp.hasChromaticAberrationCorrection()) {
+			Distortion red = cdp.getRedDistortion() != null ? cdp
+					.getRedDistortion() : cdp.getDistortion();
+			Distortion blue = cdp.getBlueDistortion() != null ? cdp
+					.getBlueDistortion() : cdp.getDistortion();
+			if (!red.equals(this.mRedDistortion)) {
+				this.mRedDistortion = new Distortion(red);
+			}
+			if (!blue.equals(this.mBlueDistortion)) {
+				this.mBlueDistortion = new Distortion(blue);
+			}
+			getProgramHolder(PROGRAM_CHROMATIC);
+		} else {
+			this.mRedDistortion = null;
+			this.mBlueDistortion = null;
+			getProgramHolder(0);
 		}
 		EyeViewport leftEyeViewport = initViewportForEye(leftEye, 0.0F);
 		EyeViewport rightEyeViewport = initViewportForEye(rightEye,
@@ -155,14 +589,49 @@ public class DistortionRenderer {
 		float yEyeOffsetMScreen = cdp.getVerticalDistanceToLensCenter()
 				- screen.getBorderSizeMeters();
 
-		this.mLeftEyeDistortionMesh = createDistortionMesh(leftEye,
-				leftEyeViewport, textureWidthM, textureHeightM,
-				xEyeOffsetMScreen, yEyeOffsetMScreen);
+		this.mLeftEyeViewport = leftEyeViewport;
+		this.mRightEyeViewport = rightEyeViewport;
+		this.mTextureWidthM = textureWidthM;
+		this.mTextureHeightM = textureHeightM;
+		this.mXEyeOffsetMScreen = xEyeOffsetMScreen;
+		this.mYEyeOffsetMScreen = yEyeOffsetMScreen;
+		this.mLensRadiusMTexture = cdp.getLensDiameter() / 2.0F
+				/ cdp.getEyeToLensDistance()
+				* (cdp.getEyeToLensDistance() + cdp.getScreenToLensDistance());
+		this.mHiddenAreaChanged = true;
+		this.mEyeToScreenDistanceM = cdp.getEyeToLensDistance()
+				+ cdp.getScreenToLensDistance();
+		updateMultiResolutionLayouts();
+
+		this.mPerPixelSupported = fillCoefficients(this.mDistortion,
+				this.mCoefficients);
+		if (this.mRedDistortion != null) {
+			this.mPerPixelSupported &= fillCoefficients(this.mRedDistortion,
+					this.mRedCoefficients);
+			this.mPerPixelSupported &= fillCoefficients(this.mBlueDistortion,
+					this.mBlueCoefficients);
+		}
+		if ((this.mCorrectionMode == CorrectionMode.PER_PIXEL)
+				&& (!this.mPerPixelSupported)) {
+			Log.w(TAG, "Per-pixel correction supports at most "
+					+ MAX_PER_PIXEL_COEFFICIENTS
+					+ " coefficients, falling back to the mesh");
+		}
 
-		xEyeOffsetMScreen = screen.getWidthMeters() - xEyeOffsetMScreen;
-		this.mRightEyeDistortionMesh = createDistortionMesh(rightEye,
-				rightEyeViewport, textureWidthM, textureHeightM,
-				xEyeOffsetMScreen, yEyeOffsetMScreen);
+		DistortionMeshRequest request = new DistortionMeshRequest(
+				++this.mMeshGeneration, screen.getWidthMeters(),
+				screen.getHeightMeters(), xPxPerM, yPxPerM,
+				xEyeOffsetMScreen, yEyeOffsetMScreen, textureWidthM,
+				textureHeightM, leftEyeViewport, rightEyeViewport);
+		if (this.mDistortionMesh == null) {
+			request.run();
+			swapCompletedDistortionMeshes();
+			if (this.mDistortionMesh == null) {
+				throw new RuntimeException("Could not create distortion mesh");
+			}
+		} else {
+			this.mMeshExecutor.execute(request);
+		}
 
 		setupRenderTextureAndRenderbuffer(textureWidthPx, textureHeightPx);
 	}
@@ -204,49 +673,611 @@ public class DistortionRenderer {
 		return vp;
 	}
 
-	private DistortionMesh createDistortionMesh(EyeParams eye,
-			EyeViewport eyeViewport, float textureWidthM, float textureHeightM,
-			float xEyeOffsetMScreen, float yEyeOffsetMScreen) {
-		return new DistortionMesh(eye,
-				this.mHmd.getCardboard().getDistortion(), this.mHmd.getScreen()
-						.getWidthMeters(), this.mHmd.getScreen()
-						.getHeightMeters(), xEyeOffsetMScreen,
-				yEyeOffsetMScreen, textureWidthM, textureHeightM,
-				eyeViewport.eyeX, eyeViewport.eyeY, eyeViewport.x,
-				eyeViewport.y, eyeViewport.width, eyeViewport.height);
+	private Distortion getInverseDistortion(Distortion distortion,
+			float maxRadius) {
+		synchronized (this.mInverseDistortionLock) {
+			if ((distortion.equals(this.mInverseDistortionSource))
+					&& (maxRadius == this.mInverseDistortionMaxRadius)) {
+				return this.mInverseDistortion;
+			}
+			Distortion result = null;
+			for (int n = distortion.getNumCoefficients(); n <= 6; n++) {
+				Distortion inverse = distortion
+						.getApproximateInverseDistortion(maxRadius, n);
+				if ((inverse != null)
+						&& (inverse.getApproximationMaxError() <= 1.0E-5F)) {
+					result = inverse;
+					break;
+				}
+			}
+			this.mInverseDistortionSource = distortion;
+			this.mInverseDistortion = result;
+			this.mInverseDistortionMaxRadius = maxRadius;
+			return result;
+		}
+	}
+
+	private float maxEyeRadius(EyeViewport vp) {
+		float dx = Math.max(vp.eyeX - vp.x, vp.x + vp.width - vp.eyeX);
+		float dy = Math.max(vp.eyeY - vp.y, vp.y + vp.height - vp.eyeY);
+		return (float) Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private void swapCompletedDistortionMeshes() {
+		DistortionMeshRequest request = (DistortionMeshRequest) this.mCompletedMeshRequest
+				.getAndSet(null);
+		if ((request == null) || (request.generation != this.mMeshGeneration)) {
+			return;
+		}
+		if (this.mDistortionMesh != null) {
+			this.mDistortionMesh.release();
+		}
+		this.mDistortionMesh = new DistortionMesh(request.data,
+				request.textureWidthM, request.textureHeightM,
+				request.leftEyeViewport.eyeX, request.leftEyeViewport.eyeY,
+				request.rightEyeViewport.eyeX, request.rightEyeViewport.eyeY);
+	}
+
+	private class DistortionMeshRequest implements Runnable {
+		public final int generation;
+		public final float screenWidthM;
+		public final float screenHeightM;
+		public final float xPxPerM;
+		public final float yPxPerM;
+		public final float xEyeOffsetMScreen;
+		public final float yEyeOffsetMScreen;
+		public final float textureWidthM;
+		public final float textureHeightM;
+		public final EyeViewport leftEyeViewport;
+		public final EyeViewport rightEyeViewport;
+		private final Distortion mDistortion;
+		private final Distortion mRedDistortion;
+		private final Distortion mBlueDistortion;
+		private Distortion mInverseDistortion;
+		public DistortionMeshCache.MeshData data;
+
+		public DistortionMeshRequest(int generation, float screenWidthM,
+				float screenHeightM, float xPxPerM, float yPxPerM,
+				float xEyeOffsetMScreen,
+				float yEyeOffsetMScreen, float textureWidthM,
+				float textureHeightM, EyeViewport leftEyeViewport,
+				EyeViewport rightEyeViewport) {
+			this.generation = generation;
+			this.screenWidthM = screenWidthM;
+			this.screenHeightM = screenHeightM;
+			this.xPxPerM = xPxPerM;
+			this.yPxPerM = yPxPerM;
+			this.xEyeOffsetMScreen = xEyeOffsetMScreen;
+			this.yEyeOffsetMScreen = yEyeOffsetMScreen;
+			this.textureWidthM = textureWidthM;
+			this.textureHeightM = textureHeightM;
+			this.leftEyeViewport = leftEyeViewport;
+			this.rightEyeViewport = rightEyeViewport;
+			this.mDistortion = DistortionRenderer.this.mDistortion;
+			this.mRedDistortion = DistortionRenderer.this.mRedDistortion;
+			this.mBlueDistortion = DistortionRenderer.this.mBlueDistortion;
+		}
+
+		public void run() {
+			if (this.generation != DistortionRenderer.this.mMeshGeneration) {
+				return;
+			}
+			try {
+				float maxRadius = Math.max(
+						DistortionRenderer.this.maxEyeRadius(this.leftEyeViewport),
+						DistortionRenderer.this
+								.maxEyeRadius(this.rightEyeViewport));
+				this.mInverseDistortion = DistortionRenderer.this
+						.getInverseDistortion(this.mDistortion, maxRadius);
+
+				this.data = DistortionRenderer.mergeDistortionMeshData(
+						getMeshData(this.leftEyeViewport,
+								this.xEyeOffsetMScreen),
+						getMeshData(this.rightEyeViewport, this.screenWidthM
+								- this.xEyeOffsetMScreen));
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Could not create distortion mesh: " + e.toString());
+				return;
+			}
+			DistortionRenderer.this.mCompletedMeshRequest.set(this);
+		}
+
+		private DistortionMeshCache.MeshData getMeshData(
+				EyeViewport eyeViewport, float xEyeOffsetMScreen) {
+			long key = DistortionMeshCache.fingerprint();
+			key = DistortionMeshCache.fingerprint(key, this.mDistortion);
+			key = DistortionMeshCache.fingerprint(key, this.mInverseDistortion);
+			key = DistortionMeshCache.fingerprint(key, this.mRedDistortion);
+			key = DistortionMeshCache.fingerprint(key, this.mBlueDistortion);
+			key = DistortionMeshCache.fingerprint(key, this.screenWidthM);
+			key = DistortionMeshCache.fingerprint(key, this.screenHeightM);
+			key = DistortionMeshCache.fingerprint(key, this.xPxPerM);
+			key = DistortionMeshCache.fingerprint(key, this.yPxPerM);
+			key = DistortionMeshCache.fingerprint(key, xEyeOffsetMScreen);
+			key = DistortionMeshCache.fingerprint(key, this.yEyeOffsetMScreen);
+			key = DistortionMeshCache.fingerprint(key, this.textureWidthM);
+			key = DistortionMeshCache.fingerprint(key, this.textureHeightM);
+			key = DistortionMeshCache.fingerprint(key, eyeViewport.eyeX);
+			key = DistortionMeshCache.fingerprint(key, eyeViewport.eyeY);
+			key = DistortionMeshCache.fingerprint(key, eyeViewport.x);
+			key = DistortionMeshCache.fingerprint(key, eyeViewport.y);
+			key = DistortionMeshCache.fingerprint(key, eyeViewport.width);
+			key = DistortionMeshCache.fingerprint(key, eyeViewport.height);
+
+			DistortionMeshCache.MeshData data = DistortionRenderer.this.mMeshCache
+					.get(key);
+			if (data == null) {
+				data = DistortionRenderer.this.createDistortionMeshData(key,
+						this.mDistortion, this.mInverseDistortion,
+						this.mRedDistortion, this.mBlueDistortion,
+						this.screenWidthM, this.screenHeightM, this.xPxPerM,
+						this.yPxPerM, xEyeOffsetMScreen, this.yEyeOffsetMScreen,
+						this.textureWidthM, this.textureHeightM,
+						eyeViewport.eyeX, eyeViewport.eyeY, eyeViewport.x,
+						eyeViewport.y, eyeViewport.width, eyeViewport.height);
+
+				DistortionRenderer.this.mMeshCache.put(data);
+			}
+			return data;
+		}
+	}
+
+	private static boolean fillCoefficients(Distortion distortion,
+			float[] coefficients) {
+		float[] k = distortion.getCoefficients();
+		if (k.length > coefficients.length) {
+			return false;
+		}
+		Arrays.fill(coefficients, 0.0F);
+		System.arraycopy(k, 0, coefficients, 0, k.length);
+		return true;
+	}
+
+	private void renderPerPixel() {
+		boolean chromatic = this.mRedDistortion != null;
+		PerPixelProgramHolder holder = getPerPixelProgramHolder(getProgramFlags(chromatic));
+		if (this.mQuadBufferId == -1) {
+			this.mQuadBufferId = createQuadBuffer();
+		}
+		ScreenParams screen = this.mHmd.getScreen();
+		GLES20.glUseProgram(holder.program);
+
+		GLES20.glBindBuffer(34962, this.mQuadBufferId);
+		GLES20.glVertexAttribPointer(holder.aPosition, 2, 5126, false, 12, 0);
+		GLES20.glEnableVertexAttribArray(holder.aPosition);
+		GLES20.glVertexAttribPointer(holder.aEye, 1, 5126, false, 12, 8);
+		GLES20.glEnableVertexAttribArray(holder.aEye);
+
+		GLES20.glUniform2f(holder.uScreenSize, screen.getWidthMeters(),
+				screen.getHeightMeters());
+		GLES20.glUniform2f(holder.uLeftLensCenter, this.mXEyeOffsetMScreen,
+				this.mYEyeOffsetMScreen);
+		GLES20.glUniform2f(holder.uRightLensCenter, screen.getWidthMeters()
+				- this.mXEyeOffsetMScreen, this.mYEyeOffsetMScreen);
+		GLES20.glUniform2f(holder.uLeftEyeTexture, this.mLeftEyeViewport.eyeX,
+				this.mLeftEyeViewport.eyeY);
+		GLES20.glUniform2f(holder.uRightEyeTexture,
+				this.mRightEyeViewport.eyeX, this.mRightEyeViewport.eyeY);
+		GLES20.glUniform4f(holder.uLeftViewport, this.mLeftEyeViewport.x,
+				this.mLeftEyeViewport.y, this.mLeftEyeViewport.width,
+				this.mLeftEyeViewport.height);
+		GLES20.glUniform4f(holder.uRightViewport, this.mRightEyeViewport.x,
+				this.mRightEyeViewport.y, this.mRightEyeViewport.width,
+				this.mRightEyeViewport.height);
+		GLES20.glUniform4fv(holder.uCoefficients, 2, this.mCoefficients, 0);
+		if (chromatic) {
+			GLES20.glUniform4fv(holder.uRedCoefficients, 2,
+					this.mRedCoefficients, 0);
+			GLES20.glUniform4fv(holder.uBlueCoefficients, 2,
+					this.mBlueCoefficients, 0);
+		}
+		GLES20.glUniform2f(holder.uTextureCoordScale, this.mResolutionScale
+				/ this.mTextureWidthM, this.mResolutionScale
+				/ this.mTextureHeightM);
+		GLES20.glUniform1f(holder.uVignetteSize, VIGNETTE_SIZE_M_SCREEN);
+		if (holder.uMultiResSurroundScale != -1) {
+			setMultiResolutionUniforms(holder.uLeftMultiResOrigin,
+					holder.uRightMultiResOrigin, holder.uLeftMultiResCenter,
+					holder.uRightMultiResCenter, holder.uMultiResSurroundScale);
+		}
+		if (holder.uTimewarpRotation != -1) {
+			GLES20.glUniformMatrix3fv(holder.uTimewarpRotation, 1, false,
+					this.mTimewarpRotation, 0);
+			GLES20.glUniform1f(holder.uEyeToScreenDistance,
+					this.mEyeToScreenDistanceM);
+		}
+
+		GLES20.glActiveTexture(33984);
+		GLES20.glBindTexture(3553, this.mTextureId);
+		GLES20.glUniform1i(holder.uTextureSampler, 0);
+
+		GLES20.glDrawArrays(5, 0, 10);
+
+		GLES20.glDisableVertexAttribArray(holder.aPosition);
+		GLES20.glDisableVertexAttribArray(holder.aEye);
+	}
+
+	private int createQuadBuffer() {
+		float[] quadData = { -1.0F, -1.0F, 0.0F, 0.0F, -1.0F, 0.0F, -1.0F,
+				1.0F, 0.0F, 0.0F, 1.0F, 0.0F, 0.0F, 1.0F, 0.0F, 0.0F, -1.0F,
+				1.0F, 0.0F, -1.0F, 1.0F, 1.0F, -1.0F, 1.0F, 0.0F, 1.0F, 1.0F,
+				1.0F, 1.0F, 1.0F };
+
+		ByteBuffer quadBuffer = ByteBuffer.allocateDirect(quadData.length * 4)
+				.order(ByteOrder.nativeOrder());
+
+		quadBuffer.asFloatBuffer().put(quadData);
+
+		int[] bufferIds = new int[1];
+		GLES20.glGenBuffers(1, bufferIds, 0);
+		GLES20.glBindBuffer(34962, bufferIds[0]);
+		GLES20.glBufferData(34962, quadData.length * 4, quadBuffer, 35044);
+		GLES20.glBindBuffer(34962, 0);
+		return bufferIds[0];
+	}
+
+	private void updateMultiResolutionLayouts() {
+		updateMultiResolutionLayout(this.mLeftMultiResolutionLayout,
+				this.mLeftEyeViewport, 0.0F);
+		updateMultiResolutionLayout(this.mRightMultiResolutionLayout,
+				this.mRightEyeViewport, this.mLeftMultiResolutionLayout.packedX[3]);
+	}
+
+	private void updateMultiResolutionLayout(MultiResolutionLayout layout,
+			EyeViewport vp, float packedX) {
+		float scale = this.mMultiResolutionSurroundScale;
+		float halfWidth = 0.5F * this.mMultiResolutionCenterRatio * vp.width;
+		float halfHeight = 0.5F * this.mMultiResolutionCenterRatio * vp.height;
+		layout.x[0] = vp.x;
+		layout.x[3] = (vp.x + vp.width);
+		layout.x[1] = Math.max(layout.x[0],
+				Math.min(vp.eyeX - halfWidth, layout.x[3]));
+		layout.x[2] = Math.max(layout.x[1],
+				Math.min(vp.eyeX + halfWidth, layout.x[3]));
+		layout.y[0] = vp.y;
+		layout.y[3] = (vp.y + vp.height);
+		layout.y[1] = Math.max(layout.y[0],
+				Math.min(vp.eyeY - halfHeight, layout.y[3]));
+		layout.y[2] = Math.max(layout.y[1],
+				Math.min(vp.eyeY + halfHeight, layout.y[3]));
+
+		layout.packedX[0] = packedX;
+		layout.packedY[0] = vp.y;
+		for (int i = 0; i < 3; i++) {
+			float regionScale = i == 1 ? 1.0F : scale;
+			layout.packedX[(i + 1)] = (layout.packedX[i] + regionScale
+					* (layout.x[(i + 1)] - layout.x[i]));
+			layout.packedY[(i + 1)] = (layout.packedY[i] + regionScale
+					* (layout.y[(i + 1)] - layout.y[i]));
+		}
+	}
+
+	private void setMultiResolutionUniforms(int uLeftMultiResOrigin,
+			int uRightMultiResOrigin, int uLeftMultiResCenter,
+			int uRightMultiResCenter, int uMultiResSurroundScale) {
+		float xScale = this.mResolutionScale / this.mTextureWidthM;
+		float yScale = this.mResolutionScale / this.mTextureHeightM;
+		MultiResolutionLayout left = this.mLeftMultiResolutionLayout;
+		MultiResolutionLayout right = this.mRightMultiResolutionLayout;
+		GLES20.glUniform4f(uLeftMultiResOrigin, left.x[0] * xScale, left.y[0]
+				* yScale, left.packedX[0] * xScale, left.packedY[0] * yScale);
+		GLES20.glUniform4f(uRightMultiResOrigin, right.x[0] * xScale,
+				right.y[0] * yScale, right.packedX[0] * xScale,
+				right.packedY[0] * yScale);
+		GLES20.glUniform4f(uLeftMultiResCenter, left.x[1] * xScale, left.y[1]
+				* yScale, left.x[2] * xScale, left.y[2] * yScale);
+		GLES20.glUniform4f(uRightMultiResCenter, right.x[1] * xScale,
+				right.y[1] * yScale, right.x[2] * xScale, right.y[2] * yScale);
+		GLES20.glUniform1f(uMultiResSurroundScale,
+				this.mMultiResolutionSurroundScale);
+	}
+
+	private int createHiddenAreaBuffer(int bufferId) {
+		float screenWidthM = this.mHmd.getScreen().getWidthMeters();
+		float screenHeightM = this.mHmd.getScreen().getHeightMeters();
+		float[] hiddenAreaData = new float[2 * 2 * 6 * (HIDDEN_AREA_SEGMENTS + 4)];
+		int length = addHiddenAreaTriangles(hiddenAreaData, 0,
+				this.mLeftEyeViewport, this.mXEyeOffsetMScreen,
+				this.mYEyeOffsetMScreen, screenWidthM, screenHeightM);
+		length = addHiddenAreaTriangles(hiddenAreaData, length,
+				this.mRightEyeViewport, screenWidthM - this.mXEyeOffsetMScreen,
+				this.mYEyeOffsetMScreen, screenWidthM, screenHeightM);
+		this.mHiddenAreaVertexCount = (length / 2);
+		ByteBuffer hiddenAreaBuffer = ByteBuffer.allocateDirect(
+				Math.max(length, 2) * 4).order(ByteOrder.nativeOrder());
+
+		hiddenAreaBuffer.asFloatBuffer().put(hiddenAreaData, 0, length);
+		if (bufferId == -1) {
+			int[] bufferIds = new int[1];
+			GLES20.glGenBuffers(1, bufferIds, 0);
+			bufferId = bufferIds[0];
+		}
+		GLES20.glBindBuffer(34962, bufferId);
+		GLES20.glBufferData(34962, length * 4, hiddenAreaBuffer, 35044);
+		return bufferId;
+	}
+
+	private int addHiddenAreaTriangles(float[] data, int offset,
+			EyeViewport vp, float xEyeOffsetMScreen, float yEyeOffsetMScreen,
+			float screenWidthM, float screenHeightM) {
+		float xMinMScreen = xEyeOffsetMScreen < screenWidthM / 2.0F ? 0.0F
+				: screenWidthM / 2.0F;
+		float xMaxMScreen = xMinMScreen + screenWidthM / 2.0F;
+		float[] angles = new float[HIDDEN_AREA_SEGMENTS + 4];
+		for (int i = 0; i < HIDDEN_AREA_SEGMENTS; i++) {
+			angles[i] = ((float) (6.283185307179586D * i / HIDDEN_AREA_SEGMENTS));
+		}
+		for (int i = 0; i < 4; i++) {
+			float x = (i & 0x1) == 0 ? vp.x : vp.x + vp.width;
+			float y = (i & 0x2) == 0 ? vp.y : vp.y + vp.height;
+			double angle = Math.atan2(y - vp.eyeY, x - vp.eyeX);
+			angles[(HIDDEN_AREA_SEGMENTS + i)] = ((float) (angle < 0.0D ? angle + 6.283185307179586D
+					: angle));
+		}
+		Arrays.sort(angles);
+		for (int i = 0; i < angles.length; i++) {
+			float angle0 = angles[i];
+			float angle1 = i + 1 < angles.length ? angles[(i + 1)]
+					: angles[0] + 6.283185307179586F;
+			if (angle1 <= angle0) {
+				continue;
+			}
+			float visibleRadius = 0.0F;
+			for (int j = 0; j <= HIDDEN_AREA_SUBDIVISIONS; j++) {
+				visibleRadius = Math.max(visibleRadius, getVisibleRadius(vp,
+						xEyeOffsetMScreen, yEyeOffsetMScreen, xMinMScreen,
+						xMaxMScreen, screenHeightM, angle0 + (angle1 - angle0)
+								* j / HIDDEN_AREA_SUBDIVISIONS));
+			}
+			float innerRadius = visibleRadius * (1.0F + HIDDEN_AREA_MARGIN)
+					/ (float) Math.cos((angle1 - angle0) / 2.0F);
+			float cos0 = (float) Math.cos(angle0);
+			float sin0 = (float) Math.sin(angle0);
+			float cos1 = (float) Math.cos(angle1);
+			float sin1 = (float) Math.sin(angle1);
+			float outerRadius0 = intersectRect(vp.eyeX, vp.eyeY, cos0, sin0,
+					vp.x, vp.y, vp.x + vp.width, vp.y + vp.height);
+			float outerRadius1 = intersectRect(vp.eyeX, vp.eyeY, cos1, sin1,
+					vp.x, vp.y, vp.x + vp.width, vp.y + vp.height);
+			if (!(innerRadius < Math.min(outerRadius0, outerRadius1))) {
+				continue;
+			}
+			offset = putHiddenAreaVertex(data, offset, vp, innerRadius, cos0,
+					sin0);
+			offset = putHiddenAreaVertex(data, offset, vp, outerRadius0, cos0,
+					sin0);
+			offset = putHiddenAreaVertex(data, offset, vp, outerRadius1, cos1,
+					sin1);
+			offset = putHiddenAreaVertex(data, offset, vp, innerRadius, cos0,
+					sin0);
+			offset = putHiddenAreaVertex(data, offset, vp, outerRadius1, cos1,
+					sin1);
+			offset = putHiddenAreaVertex(data, offset, vp, innerRadius, cos1,
+					sin1);
+		}
+		return offset;
+	}
+
+	private float getVisibleRadius(EyeViewport vp, float xEyeOffsetMScreen,
+			float yEyeOffsetMScreen, float xMinMScreen, float xMaxMScreen,
+			float screenHeightM, float angle) {
+		float cos = (float) Math.cos(angle);
+		float sin = (float) Math.sin(angle);
+		float radius = Math.min(this.mLensRadiusMTexture, intersectRect(
+				vp.eyeX, vp.eyeY, cos, sin, vp.x, vp.y, vp.x + vp.width, vp.y
+						+ vp.height));
+		float screenRadius = intersectRect(xEyeOffsetMScreen,
+				yEyeOffsetMScreen, cos, sin, xMinMScreen, 0.0F, xMaxMScreen,
+				screenHeightM);
+		if (Float.isInfinite(screenRadius)) {
+			return radius;
+		}
+		float textureRadius = this.mDistortion.distort(screenRadius);
+		if (this.mRedDistortion != null) {
+			textureRadius = Math.max(textureRadius,
+					this.mRedDistortion.distort(screenRadius));
+			textureRadius = Math.max(textureRadius,
+					this.mBlueDistortion.distort(screenRadius));
+		}
+		return Math.min(radius, textureRadius);
 	}
 
-	private void renderDistortionMesh(DistortionMesh mesh) {
+	private static float intersectRect(float x, float y, float dx, float dy,
+			float xMin, float yMin, float xMax, float yMax) {
+		if ((x <= xMin) || (x >= xMax) || (y <= yMin) || (y >= yMax)) {
+			return Float.POSITIVE_INFINITY;
+		}
+		float t = Float.POSITIVE_INFINITY;
+		if (dx > 0.0F) {
+			t = Math.min(t, (xMax - x) / dx);
+		} else if (dx < 0.0F) {
+			t = Math.min(t, (xMin - x) / dx);
+		}
+		if (dy > 0.0F) {
+			t = Math.min(t, (yMax - y) / dy);
+		} else if (dy < 0.0F) {
+			t = Math.min(t, (yMin - y) / dy);
+		}
+		return t;
+	}
+
+	private int putHiddenAreaVertex(float[] data, int offset, EyeViewport vp,
+			float radius, float cos, float sin) {
+		data[offset] = ((vp.eyeX + radius * cos) / this.mTextureWidthM);
+		data[(offset + 1)] = ((vp.eyeY + radius * sin) / this.mTextureHeightM);
+		return offset + 2;
+	}
+
+	private void renderDistortionMesh(DistortionMesh mesh,
+			ProgramHolder holder) {
+		int stride = mesh.mStrideBytes;
 		GLES20.glBindBuffer(34962, mesh.mArrayBufferId);
-		mesh.getClass();
-		mesh.getClass();
-		GLES20.glVertexAttribPointer(this.mProgramHolder.aPosition, 3, 5126,
-				false, 20, 0 * 4);
+		GLES20.glVertexAttribPointer(holder.aPosition, 2, 5122, true, stride,
+				DistortionMesh.DATA_POS_OFFSET);
+
+		GLES20.glEnableVertexAttribArray(holder.aPosition);
 
-		GLES20.glEnableVertexAttribArray(this.mProgramHolder.aPosition);
+		GLES20.glVertexAttribPointer(holder.aVignette, 1, 5121, true, stride,
+				DistortionMesh.DATA_VIGNETTE_OFFSET);
 
-		mesh.getClass();
-		mesh.getClass();
-		GLES20.glVertexAttribPointer(this.mProgramHolder.aVignette, 1, 5126,
-				false, 20, 2 * 4);
+		GLES20.glEnableVertexAttribArray(holder.aVignette);
 
-		GLES20.glEnableVertexAttribArray(this.mProgramHolder.aVignette);
+		GLES20.glVertexAttribPointer(holder.aEye, 1, 5121, true, stride,
+				DistortionMesh.DATA_EYE_OFFSET);
 
-		mesh.getClass();
-		mesh.getClass();
-		GLES20.glVertexAttribPointer(this.mProgramHolder.aTextureCoord, 2,
-				5126, false, 20, 3 * 4);
+		GLES20.glEnableVertexAttribArray(holder.aEye);
 
-		GLES20.glEnableVertexAttribArray(this.mProgramHolder.aTextureCoord);
+		GLES20.glVertexAttribPointer(holder.aTextureCoord, 2, 5123, true,
+				stride, DistortionMesh.DATA_UV_OFFSET);
 
+		GLES20.glEnableVertexAttribArray(holder.aTextureCoord);
+		if (mesh.mChromatic) {
+			GLES20.glVertexAttribPointer(holder.aRedTextureCoord, 2, 5123,
+					true, stride, DistortionMesh.DATA_RED_UV_OFFSET);
+
+			GLES20.glEnableVertexAttribArray(holder.aRedTextureCoord);
+
+			GLES20.glVertexAttribPointer(holder.aBlueTextureCoord, 2, 5123,
+					true, stride, DistortionMesh.DATA_BLUE_UV_OFFSET);
+
+			GLES20.glEnableVertexAttribArray(holder.aBlueTextureCoord);
+		}
 		GLES20.glActiveTexture(33984);
 		GLES20.glBindTexture(3553, this.mTextureId);
-		GLES20.glUniform1i(this.mProgramHolder.uTextureSampler, 0);
-		GLES20.glUniform1f(this.mProgramHolder.uTextureCoordScale,
-				this.mResolutionScale);
+		GLES20.glUniform1i(holder.uTextureSampler, 0);
+		setTextureCoordUniforms(mesh, holder.uTextureCoordScale,
+				holder.uLeftTextureCoordOffset,
+				holder.uRightTextureCoordOffset);
+		if (holder.uMultiResSurroundScale != -1) {
+			setMultiResolutionUniforms(holder.uLeftMultiResOrigin,
+					holder.uRightMultiResOrigin, holder.uLeftMultiResCenter,
+					holder.uRightMultiResCenter, holder.uMultiResSurroundScale);
+		}
+		if (holder.uTimewarpRotation != -1) {
+			setTimewarpUniforms(holder);
+		}
 
 		GLES20.glBindBuffer(34963, mesh.mElementBufferId);
-		GLES20.glDrawElements(5, mesh.nIndices, 5125, 0);
+		GLES20.glDrawElements(5, mesh.nIndices, 5123, 0);
+	}
+
+	private void setTimewarpUniforms(ProgramHolder holder) {
+		float scale = this.mResolutionScale;
+		GLES20.glUniformMatrix3fv(holder.uTimewarpRotation, 1, false,
+				this.mTimewarpRotation, 0);
+		GLES20.glUniform2f(holder.uLeftEyeCenter, this.mLeftEyeViewport.eyeX
+				/ this.mTextureWidthM * scale, this.mLeftEyeViewport.eyeY
+				/ this.mTextureHeightM * scale);
+		GLES20.glUniform2f(holder.uRightEyeCenter, this.mRightEyeViewport.eyeX
+				/ this.mTextureWidthM * scale, this.mRightEyeViewport.eyeY
+				/ this.mTextureHeightM * scale);
+		GLES20.glUniform2f(holder.uTanAngleScale, this.mTextureWidthM
+				/ (scale * this.mEyeToScreenDistanceM), this.mTextureHeightM
+				/ (scale * this.mEyeToScreenDistanceM));
+	}
+
+	private int getProgramFlags(boolean chromatic) {
+		int flags = chromatic ? PROGRAM_CHROMATIC : 0;
+		if (this.mMultiResolutionActive) {
+			flags |= PROGRAM_MULTI_RES;
+		}
+		if (this.mTimewarpActive) {
+			flags |= PROGRAM_TIMEWARP;
+		}
+		return flags;
+	}
+
+	private ProgramHolder getProgramHolder(int flags) {
+		if (this.mProgramHolders[flags] == null) {
+			this.mProgramHolders[flags] = createProgramHolder(flags);
+		}
+		return this.mProgramHolders[flags];
+	}
+
+	private PerPixelProgramHolder getPerPixelProgramHolder(int flags) {
+		if (this.mPerPixelProgramHolders[flags] == null) {
+			this.mPerPixelProgramHolders[flags] = createPerPixelProgramHolder(flags);
+		}
+		return this.mPerPixelProgramHolders[flags];
+	}
+
+	private static String getShaderDefines(int flags) {
+		StringBuilder defines = new StringBuilder();
+		if ((flags & PROGRAM_MULTI_RES) != 0) {
+			defines.append("#define MULTI_RES\n");
+		}
+		if ((flags & PROGRAM_TIMEWARP) != 0) {
+			defines.append("#define TIMEWARP\n");
+		}
+		return defines.toString();
+	}
+
+	private void setTextureCoordUniforms(DistortionMesh mesh,
+			int uTextureCoordScale, int uLeftTextureCoordOffset,
+			int uRightTextureCoordOffset) {
+		float xScale = mesh.mTextureWidthM / this.mTextureWidthM;
+		float yScale = mesh.mTextureHeightM / this.mTextureHeightM;
+		float leftXOffset = (this.mLeftEyeViewport.eyeX - mesh.mLeftEyeXMTexture)
+				/ this.mTextureWidthM;
+		float leftYOffset = (this.mLeftEyeViewport.eyeY - mesh.mLeftEyeYMTexture)
+				/ this.mTextureHeightM;
+		float rightXOffset = (this.mRightEyeViewport.eyeX - mesh.mRightEyeXMTexture)
+				/ this.mTextureWidthM;
+		float rightYOffset = (this.mRightEyeViewport.eyeY - mesh.mRightEyeYMTexture)
+				/ this.mTextureHeightM;
+		GLES20.glUniform2f(uTextureCoordScale, xScale * this.mResolutionScale,
+				yScale * this.mResolutionScale);
+		GLES20.glUniform2f(uLeftTextureCoordOffset, leftXOffset
+				* this.mResolutionScale, leftYOffset * this.mResolutionScale);
+		GLES20.glUniform2f(uRightTextureCoordOffset, rightXOffset
+				* this.mResolutionScale, rightYOffset * this.mResolutionScale);
+	}
+
+	private void renderHiddenAreaMask() {
+		if (this.mHiddenAreaProgramHolder == null) {
+			this.mHiddenAreaProgramHolder = createHiddenAreaProgramHolder();
+		}
+		HiddenAreaProgramHolder holder = this.mHiddenAreaProgramHolder;
+		if ((this.mHiddenAreaChanged) || (this.mHiddenAreaBufferId == -1)) {
+			this.mHiddenAreaBufferId = createHiddenAreaBuffer(this.mHiddenAreaBufferId);
+			this.mHiddenAreaChanged = false;
+		}
+
+		this.mGLState.getViewport(this.mSavedViewport, 0);
+		boolean cullFaceEnabled = this.mGLState.isEnabled(2884);
+		boolean depthTestEnabled = this.mGLState.isEnabled(2929);
+		this.mGLState.setEnabled(2884, false);
+		this.mGLState.setEnabled(2929, false);
+		this.mGLState.setEnabled(2960, true);
+		this.mGLState.setViewport(0, 0, this.mTextureWidthPx,
+				this.mTextureHeightPx);
+		this.mGLState.setColorMask(false, false, false, false);
+		GLES20.glStencilFunc(519, 1, 255);
+		GLES20.glStencilOp(7680, 7680, 7681);
+
+		GLES20.glUseProgram(holder.program);
+		GLES20.glBindBuffer(34962, this.mHiddenAreaBufferId);
+		GLES20.glVertexAttribPointer(holder.aTextureCoord, 2, 5126, false, 8,
+				0);
+		GLES20.glEnableVertexAttribArray(holder.aTextureCoord);
+		GLES20.glUniform2f(holder.uTextureCoordScale, this.mResolutionScale,
+				this.mResolutionScale);
+		GLES20.glDrawArrays(4, 0, this.mHiddenAreaVertexCount);
+
+		GLES20.glDisableVertexAttribArray(holder.aTextureCoord);
+		GLES20.glUseProgram(0);
+		GLES20.glBindBuffer(34962, 0);
+
+		this.mGLState.setColorMask(true, true, true, true);
+		GLES20.glStencilFunc(514, 0, 255);
+		GLES20.glStencilOp(7680, 7680, 7680);
+		this.mGLState.setViewport(this.mSavedViewport[0],
+				this.mSavedViewport[1], this.mSavedViewport[2],
+				this.mSavedViewport[3]);
+		this.mGLState.setEnabled(2929, depthTestEnabled);
+		if (cullFaceEnabled) {
+			this.mGLState.setEnabled(2884, true);
+		}
 	}
 
 	private float computeDistortionScale(Distortion distortion,
@@ -275,6 +1306,7 @@ public class DistortionRenderer {
 	}
 
 	private int setupRenderTextureAndRenderbuffer(int width, int height) {
+		this.mEyeBuffersValid = false;
 		if (this.mTextureId != -1) {
 			GLES20.glDeleteTextures(1, new int[] { this.mTextureId }, 0);
 		}
@@ -286,36 +1318,77 @@ public class DistortionRenderer {
 			GLES20.glDeleteFramebuffers(1, new int[] { this.mFramebufferId }, 0);
 		}
 		this.mTextureId = createTexture(width, height);
+		this.mTextureWidthPx = width;
+		this.mTextureHeightPx = height;
 		checkGlError("setupRenderTextureAndRenderbuffer: create texture");
 
+		int glesMajorVersion = getGLESMajorVersion();
+		this.mInvalidateFramebufferSupported = (Build.VERSION.SDK_INT >= 18)
+				&& (glesMajorVersion >= 3);
+		this.mStencilBufferAttached = (this.mHiddenAreaMaskEnabled)
+				&& ((glesMajorVersion >= 3) || (hasExtension("GL_OES_packed_depth_stencil")));
+		this.mGpuTimer.reset((Build.VERSION.SDK_INT >= 18)
+				&& (glesMajorVersion >= 3)
+				&& (hasExtension("GL_EXT_disjoint_timer_query")));
+
 		int[] renderbufferIds = new int[1];
 		GLES20.glGenRenderbuffers(1, renderbufferIds, 0);
 		GLES20.glBindRenderbuffer(36161, renderbufferIds[0]);
-		GLES20.glRenderbufferStorage(36161, 33189, width, height);
+		GLES20.glRenderbufferStorage(36161,
+				this.mStencilBufferAttached ? 35056 : 33189, width,
+				height);
 
 		this.mRenderbufferId = renderbufferIds[0];
 		checkGlError("setupRenderTextureAndRenderbuffer: create renderbuffer");
 
 		int[] framebufferIds = new int[1];
 		GLES20.glGenFramebuffers(1, framebufferIds, 0);
-		GLES20.glBindFramebuffer(36160, framebufferIds[0]);
+		int originalFramebufferId = this.mGLState.getFramebuffer();
+		this.mGLState.bindFramebuffer(framebufferIds[0]);
 		this.mFramebufferId = framebufferIds[0];
 
 		GLES20.glFramebufferTexture2D(36160, 36064, 3553, this.mTextureId, 0);
 
 		GLES20.glFramebufferRenderbuffer(36160, 36096, 36161,
 				renderbufferIds[0]);
+		if (this.mStencilBufferAttached) {
+			GLES20.glFramebufferRenderbuffer(36160, 36128, 36161,
+					renderbufferIds[0]);
+
+			this.mDiscardAttachments = new int[] { 36096, 36128 };
+		} else {
+			this.mDiscardAttachments = new int[] { 36096 };
+		}
 
 		int status = GLES20.glCheckFramebufferStatus(36160);
 		if (status != 36053) {
 			throw new RuntimeException("Framebuffer is not complete: "
 					+ Integer.toHexString(status));
 		}
-		GLES20.glBindFramebuffer(36160, 0);
+		this.mGLState.bindFramebuffer(originalFramebufferId);
 
 		return framebufferIds[0];
 	}
 
+	private static int getGLESMajorVersion() {
+		String version = GLES20.glGetString(7938);
+		String prefix = "OpenGL ES ";
+		if ((version == null) || (!version.startsWith(prefix))
+				|| (version.length() <= prefix.length())) {
+			return 2;
+		}
+		return Math.max(2,
+				Character.digit(version.charAt(prefix.length()), 10));
+	}
+
+	private static boolean hasExtension(String name) {
+		String extensions = GLES20.glGetString(7939);
+		if (extensions == null) {
+			return false;
+		}
+		return (" " + extensions + " ").indexOf(" " + name + " ") != -1;
+	}
+
 	private int loadShader(int shaderType, String source) {
 		int shader = GLES20.glCreateShader(shaderType);
 		if (shader != 0) {
@@ -362,11 +1435,18 @@ public class DistortionRenderer {
 		return program;
 	}
 
-	private ProgramHolder createProgramHolder() {
+	private ProgramHolder createProgramHolder(int flags) {
 		ProgramHolder holder = new ProgramHolder();
-		holder.program = createProgram(
-				"attribute vec2 aPosition;\nattribute float aVignette;\nattribute vec2 aTextureCoord;\nvarying vec2 vTextureCoord;\nvarying float vVignette;\nuniform float uTextureCoordScale;\nvoid main() {\n gl_Position = vec4(aPosition, 0.0, 1.0);\n vTextureCoord = aTextureCoord.xy * uTextureCoordScale;\n vVignette = aVignette;\n}\n",
-				"precision mediump float;\nvarying vec2 vTextureCoord;\nvarying float vVignette;\nuniform sampler2D uTextureSampler;\nvoid main() {\n gl_FragColor = vVignette * texture2D(uTextureSampler, vTextureCoord);\n}\n");
+		boolean chromatic = (flags & PROGRAM_CHROMATIC) != 0;
+		String prefix = getShaderDefines(flags);
+		if (chromatic) {
+			holder.program = createProgram(prefix
+					+ this.CHROMATIC_VERTEX_SHADER, prefix
+					+ this.CHROMATIC_FRAGMENT_SHADER);
+		} else {
+			holder.program = createProgram(prefix + this.VERTEX_SHADER, prefix
+					+ this.FRAGMENT_SHADER);
+		}
 		if (holder.program == 0) {
 			throw new RuntimeException("Could not create program");
 		}
@@ -384,6 +1464,11 @@ public class DistortionRenderer {
 			throw new RuntimeException(
 					"Could not get attrib location for aVignette");
 		}
+		holder.aEye = GLES20.glGetAttribLocation(holder.program, "aEye");
+		checkGlError("glGetAttribLocation aEye");
+		if (holder.aEye == -1) {
+			throw new RuntimeException("Could not get attrib location for aEye");
+		}
 		holder.aTextureCoord = GLES20.glGetAttribLocation(holder.program,
 				"aTextureCoord");
 
@@ -392,6 +1477,27 @@ public class DistortionRenderer {
 			throw new RuntimeException(
 					"Could not get attrib location for aTextureCoord");
 		}
+		if (chromatic) {
+			holder.aRedTextureCoord = GLES20.glGetAttribLocation(
+					holder.program, "aRedTextureCoord");
+
+			checkGlError("glGetAttribLocation aRedTextureCoord");
+			if (holder.aRedTextureCoord == -1) {
+				throw new RuntimeException(
+						"Could not get attrib location for aRedTextureCoord");
+			}
+			holder.aBlueTextureCoord = GLES20.glGetAttribLocation(
+					holder.program, "aBlueTextureCoord");
+
+			checkGlError("glGetAttribLocation aBlueTextureCoord");
+			if (holder.aBlueTextureCoord == -1) {
+				throw new RuntimeException(
+						"Could not get attrib location for aBlueTextureCoord");
+			}
+		} else {
+			holder.aRedTextureCoord = -1;
+			holder.aBlueTextureCoord = -1;
+		}
 		holder.uTextureCoordScale = GLES20.glGetUniformLocation(holder.program,
 				"uTextureCoordScale");
 
@@ -400,6 +1506,22 @@ public class DistortionRenderer {
 			throw new RuntimeException(
 					"Could not get attrib location for uTextureCoordScale");
 		}
+		holder.uLeftTextureCoordOffset = GLES20.glGetUniformLocation(
+				holder.program, "uLeftTextureCoordOffset");
+
+		checkGlError("glGetUniformLocation uLeftTextureCoordOffset");
+		if (holder.uLeftTextureCoordOffset == -1) {
+			throw new RuntimeException(
+					"Could not get attrib location for uLeftTextureCoordOffset");
+		}
+		holder.uRightTextureCoordOffset = GLES20.glGetUniformLocation(
+				holder.program, "uRightTextureCoordOffset");
+
+		checkGlError("glGetUniformLocation uRightTextureCoordOffset");
+		if (holder.uRightTextureCoordOffset == -1) {
+			throw new RuntimeException(
+					"Could not get attrib location for uRightTextureCoordOffset");
+		}
 		holder.uTextureSampler = GLES20.glGetUniformLocation(holder.program,
 				"uTextureSampler");
 
@@ -408,9 +1530,137 @@ public class DistortionRenderer {
 			throw new RuntimeException(
 					"Could not get attrib location for uTextureSampler");
 		}
+		if ((flags & PROGRAM_MULTI_RES) != 0) {
+			holder.uLeftMultiResOrigin = getUniformLocation(holder.program,
+					"uLeftMultiResOrigin");
+			holder.uRightMultiResOrigin = getUniformLocation(holder.program,
+					"uRightMultiResOrigin");
+			holder.uLeftMultiResCenter = getUniformLocation(holder.program,
+					"uLeftMultiResCenter");
+			holder.uRightMultiResCenter = getUniformLocation(holder.program,
+					"uRightMultiResCenter");
+			holder.uMultiResSurroundScale = getUniformLocation(holder.program,
+					"uMultiResSurroundScale");
+		} else {
+			holder.uMultiResSurroundScale = -1;
+		}
+		if ((flags & PROGRAM_TIMEWARP) != 0) {
+			holder.uTimewarpRotation = getUniformLocation(holder.program,
+					"uTimewarpRotation");
+			holder.uLeftEyeCenter = getUniformLocation(holder.program,
+					"uLeftEyeCenter");
+			holder.uRightEyeCenter = getUniformLocation(holder.program,
+					"uRightEyeCenter");
+			holder.uTanAngleScale = getUniformLocation(holder.program,
+					"uTanAngleScale");
+		} else {
+			holder.uTimewarpRotation = -1;
+		}
+		return holder;
+	}
+
+	private PerPixelProgramHolder createPerPixelProgramHolder(int flags) {
+		PerPixelProgramHolder holder = new PerPixelProgramHolder();
+		boolean chromatic = (flags & PROGRAM_CHROMATIC) != 0;
+		String prefix = getShaderDefines(flags);
+		holder.program = createProgram(prefix + this.PER_PIXEL_VERTEX_SHADER,
+				prefix
+						+ (chromatic ? this.CHROMATIC_PER_PIXEL_FRAGMENT_SHADER
+								: this.PER_PIXEL_FRAGMENT_SHADER));
+		if (holder.program == 0) {
+			throw new RuntimeException("Could not create program");
+		}
+		holder.aPosition = getAttribLocation(holder.program, "aPosition");
+		holder.aEye = getAttribLocation(holder.program, "aEye");
+		holder.uScreenSize = getUniformLocation(holder.program, "uScreenSize");
+		holder.uLeftLensCenter = getUniformLocation(holder.program,
+				"uLeftLensCenter");
+		holder.uRightLensCenter = getUniformLocation(holder.program,
+				"uRightLensCenter");
+		holder.uLeftEyeTexture = getUniformLocation(holder.program,
+				"uLeftEyeTexture");
+		holder.uRightEyeTexture = getUniformLocation(holder.program,
+				"uRightEyeTexture");
+		holder.uLeftViewport = getUniformLocation(holder.program,
+				"uLeftViewport");
+		holder.uRightViewport = getUniformLocation(holder.program,
+				"uRightViewport");
+		holder.uCoefficients = getUniformLocation(holder.program,
+				"uCoefficients");
+		if (chromatic) {
+			holder.uRedCoefficients = getUniformLocation(holder.program,
+					"uRedCoefficients");
+			holder.uBlueCoefficients = getUniformLocation(holder.program,
+					"uBlueCoefficients");
+		} else {
+			holder.uRedCoefficients = -1;
+			holder.uBlueCoefficients = -1;
+		}
+		holder.uTextureCoordScale = getUniformLocation(holder.program,
+				"uTextureCoordScale");
+		holder.uVignetteSize = getUniformLocation(holder.program,
+				"uVignetteSize");
+		holder.uTextureSampler = getUniformLocation(holder.program,
+				"uTextureSampler");
+		if ((flags & PROGRAM_MULTI_RES) != 0) {
+			holder.uLeftMultiResOrigin = getUniformLocation(holder.program,
+					"uLeftMultiResOrigin");
+			holder.uRightMultiResOrigin = getUniformLocation(holder.program,
+					"uRightMultiResOrigin");
+			holder.uLeftMultiResCenter = getUniformLocation(holder.program,
+					"uLeftMultiResCenter");
+			holder.uRightMultiResCenter = getUniformLocation(holder.program,
+					"uRightMultiResCenter");
+			holder.uMultiResSurroundScale = getUniformLocation(holder.program,
+					"uMultiResSurroundScale");
+		} else {
+			holder.uMultiResSurroundScale = -1;
+		}
+		if ((flags & PROGRAM_TIMEWARP) != 0) {
+			holder.uTimewarpRotation = getUniformLocation(holder.program,
+					"uTimewarpRotation");
+			holder.uEyeToScreenDistance = getUniformLocation(holder.program,
+					"uEyeToScreenDistance");
+		} else {
+			holder.uTimewarpRotation = -1;
+		}
+		return holder;
+	}
+
+	private HiddenAreaProgramHolder createHiddenAreaProgramHolder() {
+		HiddenAreaProgramHolder holder = new HiddenAreaProgramHolder();
+		holder.program = createProgram(this.HIDDEN_AREA_VERTEX_SHADER,
+				this.HIDDEN_AREA_FRAGMENT_SHADER);
+		if (holder.program == 0) {
+			throw new RuntimeException("Could not create program");
+		}
+		holder.aTextureCoord = getAttribLocation(holder.program,
+				"aTextureCoord");
+		holder.uTextureCoordScale = getUniformLocation(holder.program,
+				"uTextureCoordScale");
 		return holder;
 	}
 
+	private int getAttribLocation(int program, String name) {
+		int location = GLES20.glGetAttribLocation(program, name);
+		checkGlError("glGetAttribLocation " + name);
+		if (location == -1) {
+			throw new RuntimeException("Could not get attrib location for "
+					+ name);
+		}
+		return location;
+	}
+
+	private int getUniformLocation(int program, String name) {
+		int location = GLES20.glGetUniformLocation(program, name);
+		checkGlError("glGetUniformLocation " + name);
+		if (location == -1) {
+			throw new RuntimeException("Could not get attrib location for "
+					+ name);
+		}
+		return location;
+	}
+
 	private void checkGlError(String op) {
 		int error;
 		if ((error = GLES20.glGetError()) != 0) {
@@ -423,124 +1673,435 @@ public class DistortionRenderer {
 		return Math.max(min, Math.min(max, val));
 	}
 
-	private class DistortionMesh {
-		private static final String TAG = "DistortionMesh";
-		public static final int BYTES_PER_FLOAT = 4;
-		public static final int BYTES_PER_INT = 4;
-		public final int COMPONENTS_PER_VERT = 5;
-		public final int DATA_STRIDE_BYTES = 20;
-		public final int DATA_POS_OFFSET = 0;
-		public final int DATA_VIGNETTE_OFFSET = 2;
-		public final int DATA_UV_OFFSET = 3;
-		public final int ROWS = 40;
-		public final int COLS = 40;
-		public final float VIGNETTE_SIZE_M_SCREEN = 0.0020F;
-		public int nIndices;
-		public int mArrayBufferId = -1;
-		public int mElementBufferId = -1;
+	private static float textureToScreenScale(Distortion distortion,
+			Distortion inverseDistortion, float xTextureEye, float yTextureEye) {
+		float rTexture = (float) Math.sqrt(xTextureEye * xTextureEye
+				+ yTextureEye * yTextureEye);
+		if (!(rTexture > 0.0F)) {
+			return 1.0F;
+		}
+		float rScreen = inverseDistortion != null ? inverseDistortion
+				.distort(rTexture) : distortion.distortInverse(rTexture);
+		return rScreen / rTexture;
+	}
 
-		public DistortionMesh(EyeParams eye, Distortion distortion,
-				float screenWidthM, float screenHeightM,
-				float xEyeOffsetMScreen, float yEyeOffsetMScreen,
-				float textureWidthM, float textureHeightM,
-				float xEyeOffsetMTexture, float yEyeOffsetMTexture,
-				float viewportXMTexture, float viewportYMTexture,
-				float viewportWidthMTexture, float viewportHeightMTexture) {
-			float mPerUScreen = screenWidthM;
-			float mPerVScreen = screenHeightM;
-			float mPerUTexture = textureWidthM;
-			float mPerVTexture = textureHeightM;
-
-			float[] vertexData = new float['ὀ'];
-			int vertexOffset = 0;
-			for (int row = 0; row < 40; row++) {
-				for (int col = 0; col < 40; col++) {
-					float uTexture = col / 39.0F
-							* (viewportWidthMTexture / textureWidthM)
-							+ viewportXMTexture / textureWidthM;
-
-					float vTexture = row / 39.0F
-							* (viewportHeightMTexture / textureHeightM)
-							+ viewportYMTexture / textureHeightM;
-
-					float xTexture = uTexture * mPerUTexture;
-					float yTexture = vTexture * mPerVTexture;
-					float xTextureEye = xTexture - xEyeOffsetMTexture;
-					float yTextureEye = yTexture - yEyeOffsetMTexture;
-					float rTexture = (float) Math.sqrt(xTextureEye
-							* xTextureEye + yTextureEye * yTextureEye);
-
-					float textureToScreen = rTexture > 0.0F ? distortion
-							.distortInverse(rTexture) / rTexture : 1.0F;
-
-					float xScreen = xTextureEye * textureToScreen
-							+ xEyeOffsetMScreen;
-					float yScreen = yTextureEye * textureToScreen
-							+ yEyeOffsetMScreen;
-					float uScreen = xScreen / mPerUScreen;
-					float vScreen = yScreen / mPerVScreen;
-					float vignetteSizeMTexture = 0.0020F / textureToScreen;
-
-					float dxTexture = xTexture
-							- DistortionRenderer.clamp(xTexture,
-									viewportXMTexture + vignetteSizeMTexture,
-									viewportXMTexture + viewportWidthMTexture
-											- vignetteSizeMTexture);
-
-					float dyTexture = yTexture
-							- DistortionRenderer.clamp(yTexture,
-									viewportYMTexture + vignetteSizeMTexture,
-									viewportYMTexture + viewportHeightMTexture
-											- vignetteSizeMTexture);
-
-					float drTexture = (float) Math.sqrt(dxTexture * dxTexture
-							+ dyTexture * dyTexture);
-
-					float vignette = 1.0F - DistortionRenderer.clamp(drTexture
-							/ vignetteSizeMTexture, 0.0F, 1.0F);
-
-					vertexData[(vertexOffset + 0)] = (2.0F * uScreen - 1.0F);
-					vertexData[(vertexOffset + 1)] = (2.0F * vScreen - 1.0F);
-					vertexData[(vertexOffset + 2)] = vignette;
-					vertexData[(vertexOffset + 3)] = uTexture;
-					vertexData[(vertexOffset + 4)] = vTexture;
-
-					vertexOffset += 5;
-				}
+	private static float meshEdgeError(Distortion distortion,
+			Distortion inverseDistortion, float x0, float y0, float x1,
+			float y1, float xPxPerM, float yPxPerM) {
+		float xMid = 0.5F * (x0 + x1);
+		float yMid = 0.5F * (y0 + y1);
+		float scale0 = textureToScreenScale(distortion, inverseDistortion, x0,
+				y0);
+		float scale1 = textureToScreenScale(distortion, inverseDistortion, x1,
+				y1);
+		float scaleMid = textureToScreenScale(distortion, inverseDistortion,
+				xMid, yMid);
+		float dx = (xMid * scaleMid - 0.5F * (x0 * scale0 + x1 * scale1))
+				* xPxPerM;
+		float dy = (yMid * scaleMid - 0.5F * (y0 * scale0 + y1 * scale1))
+				* yPxPerM;
+		return (float) Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private static float[] initMeshLines(float min, float size, float inset0,
+			float inset1) {
+		float[] lines = new float[MESH_MIN_DIVISIONS + 3];
+		for (int i = 0; i <= MESH_MIN_DIVISIONS; i++) {
+			lines[i] = min + size * i / MESH_MIN_DIVISIONS;
+		}
+		lines[(MESH_MIN_DIVISIONS + 1)] = min + Math.min(inset0, 0.5F * size);
+		lines[(MESH_MIN_DIVISIONS + 2)] = min + size
+				- Math.min(inset1, 0.5F * size);
+		Arrays.sort(lines);
+		int n = 1;
+		for (int i = 1; i < lines.length; i++) {
+			if (lines[i] > lines[(n - 1)]) {
+				lines[(n++)] = lines[i];
 			}
-			this.nIndices = 3158;
-			int[] indexData = new int[this.nIndices];
-			int indexOffset = 0;
-			vertexOffset = 0;
-			for (int row = 0; row < 39; row++) {
-				if (row > 0) {
-					indexData[indexOffset] = indexData[(indexOffset - 1)];
-					indexOffset++;
-				}
-				for (int col = 0; col < 40; col++) {
-					if (col > 0) {
-						if (row % 2 == 0) {
-							vertexOffset++;
+		}
+		return Arrays.copyOf(lines, n);
+	}
+
+	private static float[] subdivideMeshLines(float[] lines, boolean[] split) {
+		int count = lines.length;
+		for (int i = 0; i < split.length; i++) {
+			if (split[i]) {
+				count++;
+			}
+		}
+		if ((count == lines.length) || (count > MESH_MAX_LINES)) {
+			return lines;
+		}
+		float[] subdivided = new float[count];
+		int n = 0;
+		for (int i = 0; i < split.length; i++) {
+			subdivided[(n++)] = lines[i];
+			if (split[i]) {
+				subdivided[(n++)] = 0.5F * (lines[i] + lines[(i + 1)]);
+			}
+		}
+		subdivided[n] = lines[(lines.length - 1)];
+		return subdivided;
+	}
+
+	private static float[][] createMeshGrid(Distortion distortion,
+			Distortion inverseDistortion, float xEyeOffsetMTexture,
+			float yEyeOffsetMTexture, float viewportXMTexture,
+			float viewportYMTexture, float viewportWidthMTexture,
+			float viewportHeightMTexture, float xPxPerM, float yPxPerM) {
+		float x0 = viewportXMTexture - xEyeOffsetMTexture;
+		float x1 = x0 + viewportWidthMTexture;
+		float y0 = viewportYMTexture - yEyeOffsetMTexture;
+		float y1 = y0 + viewportHeightMTexture;
+		float xCenter = clamp(0.0F, x0, x1);
+		float yCenter = clamp(0.0F, y0, y1);
+
+		float[] xs = initMeshLines(x0, viewportWidthMTexture,
+				VIGNETTE_SIZE_M_SCREEN
+						/ textureToScreenScale(distortion, inverseDistortion,
+								x0, yCenter), VIGNETTE_SIZE_M_SCREEN
+						/ textureToScreenScale(distortion, inverseDistortion,
+								x1, yCenter));
+
+		float[] ys = initMeshLines(y0, viewportHeightMTexture,
+				VIGNETTE_SIZE_M_SCREEN
+						/ textureToScreenScale(distortion, inverseDistortion,
+								xCenter, y0), VIGNETTE_SIZE_M_SCREEN
+						/ textureToScreenScale(distortion, inverseDistortion,
+								xCenter, y1));
+
+		for (int pass = 0; pass < MESH_MAX_REFINEMENTS; pass++) {
+			boolean[] splitX = new boolean[xs.length - 1];
+			boolean[] splitY = new boolean[ys.length - 1];
+			for (int j = 0; j < ys.length - 1; j++) {
+				for (int i = 0; i < xs.length - 1; i++) {
+					if ((!splitX[i])
+							&& ((meshEdgeError(distortion, inverseDistortion,
+									xs[i], ys[j], xs[(i + 1)], ys[j], xPxPerM,
+									yPxPerM) > MESH_MAX_ERROR_PX) || (meshEdgeError(
+									distortion, inverseDistortion, xs[i],
+									ys[(j + 1)], xs[(i + 1)], ys[(j + 1)],
+									xPxPerM, yPxPerM) > MESH_MAX_ERROR_PX))) {
+						splitX[i] = true;
+					}
+					if ((!splitY[j])
+							&& ((meshEdgeError(distortion, inverseDistortion,
+									xs[i], ys[j], xs[i], ys[(j + 1)], xPxPerM,
+									yPxPerM) > MESH_MAX_ERROR_PX) || (meshEdgeError(
+									distortion, inverseDistortion, xs[(i + 1)],
+									ys[j], xs[(i + 1)], ys[(j + 1)], xPxPerM,
+									yPxPerM) > MESH_MAX_ERROR_PX))) {
+						splitY[j] = true;
+					}
+					if ((!splitX[i])
+							&& (!splitY[j])
+							&& ((meshEdgeError(distortion, inverseDistortion,
+									xs[i], ys[j], xs[(i + 1)], ys[(j + 1)],
+									xPxPerM, yPxPerM) > MESH_MAX_ERROR_PX) || (meshEdgeError(
+									distortion, inverseDistortion, xs[i],
+									ys[(j + 1)], xs[(i + 1)], ys[j], xPxPerM,
+									yPxPerM) > MESH_MAX_ERROR_PX))) {
+						if (xs[(i + 1)] - xs[i] >= ys[(j + 1)] - ys[j]) {
+							splitX[i] = true;
 						} else {
-							vertexOffset--;
+							splitY[j] = true;
 						}
 					}
-					indexData[(indexOffset++)] = vertexOffset;
-					indexData[(indexOffset++)] = (vertexOffset + 40);
 				}
-				vertexOffset += 40;
 			}
-			FloatBuffer vertexBuffer = ByteBuffer
-					.allocateDirect(vertexData.length * 4)
-					.order(ByteOrder.nativeOrder()).asFloatBuffer();
+			float[] refinedXs = subdivideMeshLines(xs, splitX);
+			float[] refinedYs = subdivideMeshLines(ys, splitY);
+			if ((refinedXs == xs) && (refinedYs == ys)) {
+				break;
+			}
+			xs = refinedXs;
+			ys = refinedYs;
+		}
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] += xEyeOffsetMTexture;
+		}
+		for (int j = 0; j < ys.length; j++) {
+			ys[j] += yEyeOffsetMTexture;
+		}
+		return new float[][] { xs, ys };
+	}
+
+	private DistortionMeshCache.MeshData createDistortionMeshData(long key,
+			Distortion distortion, Distortion inverseDistortion,
+			Distortion redDistortion, Distortion blueDistortion,
+			float screenWidthM, float screenHeightM, float xPxPerM,
+			float yPxPerM, float xEyeOffsetMScreen, float yEyeOffsetMScreen,
+			float textureWidthM, float textureHeightM,
+			float xEyeOffsetMTexture, float yEyeOffsetMTexture,
+			float viewportXMTexture, float viewportYMTexture,
+			float viewportWidthMTexture, float viewportHeightMTexture) {
+		float mPerUScreen = screenWidthM;
+		float mPerVScreen = screenHeightM;
+		float mPerUTexture = textureWidthM;
+		float mPerVTexture = textureHeightM;
+
+		boolean chromatic = (redDistortion != null) && (blueDistortion != null);
+		int componentsPerVert = chromatic ? 9 : 5;
+		float xMinMScreen = xEyeOffsetMScreen < screenWidthM / 2.0F ? 0.0F
+				: screenWidthM / 2.0F;
+		float xMaxMScreen = xMinMScreen + screenWidthM / 2.0F;
+
+		float[][] grid = createMeshGrid(distortion, inverseDistortion,
+				xEyeOffsetMTexture, yEyeOffsetMTexture, viewportXMTexture,
+				viewportYMTexture, viewportWidthMTexture,
+				viewportHeightMTexture, xPxPerM, yPxPerM);
+		float[] colXTexture = grid[0];
+		float[] rowYTexture = grid[1];
+		int cols = colXTexture.length;
+		int rows = rowYTexture.length;
+
+		float[] vertexData = new float[rows * cols * componentsPerVert];
+		float[] rowRadiusTexture = new float[cols];
+		float[] rowRadiusScreen = new float[cols];
+		float[] rowRadiusRed = new float[cols];
+		float[] rowRadiusBlue = new float[cols];
+		int vertexOffset = 0;
+		for (int row = 0; row < rows; row++) {
+			float yTexture = rowYTexture[row];
+			float vTexture = yTexture / mPerVTexture;
+			float yTextureEye = yTexture - yEyeOffsetMTexture;
+			for (int col = 0; col < cols; col++) {
+				float xTextureEye = colXTexture[col] - xEyeOffsetMTexture;
+				rowRadiusTexture[col] = ((float) Math.sqrt(xTextureEye
+						* xTextureEye + yTextureEye * yTextureEye));
+			}
+			if (inverseDistortion != null) {
+				inverseDistortion.distort(rowRadiusTexture,
+						rowRadiusScreen, cols);
+			} else {
+				distortion.distortInverse(rowRadiusTexture,
+						rowRadiusScreen, cols);
+			}
+			if (chromatic) {
+				redDistortion.distort(rowRadiusScreen, rowRadiusRed, cols);
+				blueDistortion.distort(rowRadiusScreen, rowRadiusBlue, cols);
+			}
+			for (int col = 0; col < cols; col++) {
+				float xTexture = colXTexture[col];
+				float uTexture = xTexture / mPerUTexture;
+				float xTextureEye = xTexture - xEyeOffsetMTexture;
+				float rTexture = rowRadiusTexture[col];
+				float textureToScreen = rTexture > 0.0F ? rowRadiusScreen[col]
+						/ rTexture : 1.0F;
+
+				float xScreen = clamp(xTextureEye * textureToScreen
+						+ xEyeOffsetMScreen, xMinMScreen, xMaxMScreen);
+				float yScreen = yTextureEye * textureToScreen
+						+ yEyeOffsetMScreen;
+				float uScreen = xScreen / mPerUScreen;
+				float vScreen = yScreen / mPerVScreen;
+				float vignetteSizeMTexture = VIGNETTE_SIZE_M_SCREEN
+						/ textureToScreen;
+
+				float dxTexture = xTexture
+						- DistortionRenderer.clamp(xTexture,
+								viewportXMTexture + vignetteSizeMTexture,
+								viewportXMTexture + viewportWidthMTexture
+										- vignetteSizeMTexture);
+
+				float dyTexture = yTexture
+						- DistortionRenderer.clamp(yTexture,
+								viewportYMTexture + vignetteSizeMTexture,
+								viewportYMTexture + viewportHeightMTexture
+										- vignetteSizeMTexture);
+
+				float drTexture = (float) Math.sqrt(dxTexture * dxTexture
+						+ dyTexture * dyTexture);
+
+				float vignette = 1.0F - DistortionRenderer.clamp(drTexture
+						/ vignetteSizeMTexture, 0.0F, 1.0F);
+
+				vertexData[(vertexOffset + 0)] = (2.0F * uScreen - 1.0F);
+				vertexData[(vertexOffset + 1)] = (2.0F * vScreen - 1.0F);
+				vertexData[(vertexOffset + 2)] = vignette;
+				vertexData[(vertexOffset + 3)] = uTexture;
+				vertexData[(vertexOffset + 4)] = vTexture;
+				if (chromatic) {
+					float redScale = rTexture > 0.0F ? rowRadiusRed[col]
+							/ rTexture : 1.0F;
+					float blueScale = rTexture > 0.0F ? rowRadiusBlue[col]
+							/ rTexture : 1.0F;
+					vertexData[(vertexOffset + 5)] = ((xEyeOffsetMTexture + xTextureEye
+							* redScale) / mPerUTexture);
+					vertexData[(vertexOffset + 6)] = ((yEyeOffsetMTexture + yTextureEye
+							* redScale) / mPerVTexture);
+					vertexData[(vertexOffset + 7)] = ((xEyeOffsetMTexture + xTextureEye
+							* blueScale) / mPerUTexture);
+					vertexData[(vertexOffset + 8)] = ((yEyeOffsetMTexture + yTextureEye
+							* blueScale) / mPerVTexture);
+				}
+				vertexOffset += componentsPerVert;
+			}
+		}
+		int nIndices = 2 * cols * (rows - 1) + rows - 2;
+		int[] indexData = new int[nIndices];
+		int indexOffset = 0;
+		vertexOffset = 0;
+		for (int row = 0; row < rows - 1; row++) {
+			if (row > 0) {
+				indexData[indexOffset] = indexData[(indexOffset - 1)];
+				indexOffset++;
+			}
+			for (int col = 0; col < cols; col++) {
+				if (col > 0) {
+					if (row % 2 == 0) {
+						vertexOffset++;
+					} else {
+						vertexOffset--;
+					}
+				}
+				indexData[(indexOffset++)] = vertexOffset;
+				indexData[(indexOffset++)] = (vertexOffset + cols);
+			}
+			vertexOffset += cols;
+		}
+		int nVertices = rows * cols;
+		int strideBytes = chromatic ? DistortionMesh.CHROMATIC_DATA_STRIDE_BYTES
+				: DistortionMesh.DATA_STRIDE_BYTES;
+		ByteBuffer vertexBuffer = ByteBuffer.allocateDirect(
+				nVertices * strideBytes).order(ByteOrder.nativeOrder());
+
+		int srcOffset = 0;
+		int dstOffset = 0;
+		for (int i = 0; i < nVertices; i++) {
+			int posOffset = dstOffset + DistortionMesh.DATA_POS_OFFSET;
+			vertexBuffer.putShort(posOffset,
+					packSignedShort(vertexData[(srcOffset + 0)]
+							/ PACKED_POSITION_RANGE));
+			vertexBuffer.putShort(posOffset + 2,
+					packSignedShort(vertexData[(srcOffset + 1)]
+							/ PACKED_POSITION_RANGE));
+			vertexBuffer.put(dstOffset + DistortionMesh.DATA_VIGNETTE_OFFSET,
+					packUnsignedByte(vertexData[(srcOffset + 2)]));
+			int uvOffset = dstOffset + DistortionMesh.DATA_UV_OFFSET;
+			vertexBuffer.putShort(uvOffset,
+					packUnsignedShort(vertexData[(srcOffset + 3)]));
+			vertexBuffer.putShort(uvOffset + 2,
+					packUnsignedShort(vertexData[(srcOffset + 4)]));
+			if (chromatic) {
+				int redUvOffset = dstOffset + DistortionMesh.DATA_RED_UV_OFFSET;
+				vertexBuffer.putShort(redUvOffset,
+						packUnsignedShort(vertexData[(srcOffset + 5)]));
+				vertexBuffer.putShort(redUvOffset + 2,
+						packUnsignedShort(vertexData[(srcOffset + 6)]));
+				int blueUvOffset = dstOffset
+						+ DistortionMesh.DATA_BLUE_UV_OFFSET;
+				vertexBuffer.putShort(blueUvOffset,
+						packUnsignedShort(vertexData[(srcOffset + 7)]));
+				vertexBuffer.putShort(blueUvOffset + 2,
+						packUnsignedShort(vertexData[(srcOffset + 8)]));
+			}
+			srcOffset += componentsPerVert;
+			dstOffset += strideBytes;
+		}
+		ByteBuffer indexBuffer = ByteBuffer.allocateDirect(nIndices * 2)
+				.order(ByteOrder.nativeOrder());
 
-			vertexBuffer.put(vertexData).position(0);
+		for (int i = 0; i < nIndices; i++) {
+			indexBuffer.putShort(i * 2, (short) indexData[i]);
+		}
+		return new DistortionMeshCache.MeshData(key, chromatic, strideBytes,
+				nVertices, nIndices, vertexBuffer, indexBuffer);
+	}
 
-			IntBuffer indexBuffer = ByteBuffer
-					.allocateDirect(indexData.length * 4)
-					.order(ByteOrder.nativeOrder()).asIntBuffer();
+	private static DistortionMeshCache.MeshData mergeDistortionMeshData(
+			DistortionMeshCache.MeshData left, DistortionMeshCache.MeshData right) {
+		if ((left.chromatic != right.chromatic)
+				|| (left.vertexStrideBytes != right.vertexStrideBytes)) {
+			throw new IllegalArgumentException(
+					"Eye meshes have different vertex layouts");
+		}
+		int nVertices = left.nVertices + right.nVertices;
+		int nIndices = left.nIndices + 2 + right.nIndices;
+		if (nVertices > 65536) {
+			throw new IllegalArgumentException("Too many vertices: "
+					+ nVertices);
+		}
+		int strideBytes = left.vertexStrideBytes;
+		ByteBuffer vertexBuffer = ByteBuffer.allocateDirect(
+				nVertices * strideBytes).order(ByteOrder.nativeOrder());
+
+		ByteBuffer leftVertices = left.vertices.duplicate();
+		leftVertices.position(0);
+		vertexBuffer.put(leftVertices);
+		ByteBuffer rightVertices = right.vertices.duplicate();
+		rightVertices.position(0);
+		vertexBuffer.put(rightVertices);
+		for (int i = left.nVertices; i < nVertices; i++) {
+			vertexBuffer.put(i * strideBytes + DistortionMesh.DATA_EYE_OFFSET,
+					(byte) -1);
+		}
+		vertexBuffer.position(0);
 
-			indexBuffer.put(indexData).position(0);
+		ByteBuffer indexBuffer = ByteBuffer.allocateDirect(nIndices * 2)
+				.order(ByteOrder.nativeOrder());
+
+		for (int i = 0; i < left.nIndices; i++) {
+			indexBuffer.putShort(left.indices.getShort(i * 2));
+		}
+		indexBuffer.putShort(left.indices.getShort((left.nIndices - 1) * 2));
+		indexBuffer.putShort((short) ((right.indices.getShort(0) & 0xFFFF) + left.nVertices));
+		for (int i = 0; i < right.nIndices; i++) {
+			indexBuffer
+					.putShort((short) ((right.indices.getShort(i * 2) & 0xFFFF) + left.nVertices));
+		}
+		indexBuffer.position(0);
+
+		return new DistortionMeshCache.MeshData(0L, left.chromatic,
+				strideBytes, nVertices, nIndices, vertexBuffer, indexBuffer);
+	}
+
+	private static short packSignedShort(float value) {
+		return (short) Math.round(clamp(value, -1.0F, 1.0F) * 32767.0F);
+	}
+
+	private static short packUnsignedShort(float value) {
+		return (short) Math.round(clamp(value, 0.0F, 1.0F) * 65535.0F);
+	}
+
+	private static byte packUnsignedByte(float value) {
+		return (byte) Math.round(clamp(value, 0.0F, 1.0F) * 255.0F);
+	}
+
+	private class DistortionMesh {
+		public static final int DATA_STRIDE_BYTES = 12;
+		public static final int CHROMATIC_DATA_STRIDE_BYTES = 20;
+		public static final int DATA_POS_OFFSET = 0;
+		public static final int DATA_VIGNETTE_OFFSET = 4;
+		public static final int DATA_EYE_OFFSET = 5;
+		public static final int DATA_UV_OFFSET = 8;
+		public static final int DATA_RED_UV_OFFSET = 12;
+		public static final int DATA_BLUE_UV_OFFSET = 16;
+		public int nIndices;
+		public boolean mChromatic;
+		public int mStrideBytes;
+		public int mArrayBufferId = -1;
+		public int mElementBufferId = -1;
+		public float mTextureWidthM;
+		public float mTextureHeightM;
+		public float mLeftEyeXMTexture;
+		public float mLeftEyeYMTexture;
+		public float mRightEyeXMTexture;
+		public float mRightEyeYMTexture;
+
+		public DistortionMesh(DistortionMeshCache.MeshData data,
+				float textureWidthM, float textureHeightM,
+				float leftEyeXMTexture, float leftEyeYMTexture,
+				float rightEyeXMTexture, float rightEyeYMTexture) {
+			this.mTextureWidthM = textureWidthM;
+			this.mTextureHeightM = textureHeightM;
+			this.mLeftEyeXMTexture = leftEyeXMTexture;
+			this.mLeftEyeYMTexture = leftEyeYMTexture;
+			this.mRightEyeXMTexture = rightEyeXMTexture;
+			this.mRightEyeYMTexture = rightEyeYMTexture;
+			this.mChromatic = data.chromatic;
+			this.mStrideBytes = data.vertexStrideBytes;
+			this.nIndices = data.nIndices;
 
 			int[] bufferIds = new int[2];
 			GLES20.glGenBuffers(2, bufferIds, 0);
@@ -548,14 +2109,22 @@ public class DistortionRenderer {
 			this.mElementBufferId = bufferIds[1];
 
 			GLES20.glBindBuffer(34962, this.mArrayBufferId);
-			GLES20.glBufferData(34962, vertexData.length * 4, vertexBuffer,
-					35044);
+			GLES20.glBufferData(34962, data.getVertexSizeBytes(),
+					data.vertices, 35044);
 
 			GLES20.glBindBuffer(34963, this.mElementBufferId);
-			GLES20.glBufferData(34963, indexData.length * 4, indexBuffer, 35044);
+			GLES20.glBufferData(34963, data.getIndexSizeBytes(), data.indices,
+					35044);
 
 			GLES20.glBindBuffer(34962, 0);
 			GLES20.glBindBuffer(34963, 0);
 		}
+
+		public void release() {
+			GLES20.glDeleteBuffers(2, new int[] { this.mArrayBufferId,
+					this.mElementBufferId }, 0);
+			this.mArrayBufferId = -1;
+			this.mElementBufferId = -1;
+		}
 	}
 }
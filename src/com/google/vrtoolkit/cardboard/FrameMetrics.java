@@ -0,0 +1,137 @@
+package com.google.vrtoolkit.cardboard;
+
+import java.util.Arrays;
+
+public class FrameMetrics {
+	public static final int POSE = 0;
+	public static final int PROJECTION = 1;
+	public static final int APP_DRAW = 2;
+	public static final int DISTORTION = 3;
+	public static final int FRAME = 4;
+	public static final int GPU_EYES = 5;
+	public static final int GPU_DISTORTION = 6;
+	public static final int NUM_STAGES = 7;
+	private static final int CAPACITY = 240;
+	private final long[][] mDurations;
+	private final long[] mCurrent;
+	private final long[] mSorted;
+	private int mNextIndex;
+	private int mFrameCount;
+	private long mFrameStartNanos;
+	private volatile boolean mEnabled;
+	private volatile Listener mListener;
+
+	public FrameMetrics() {
+		this.mDurations = new long[NUM_STAGES][CAPACITY];
+		this.mCurrent = new long[NUM_STAGES];
+		this.mSorted = new long[CAPACITY];
+	}
+
+	public static abstract interface Listener {
+		public abstract void onFrameMetrics(FrameMetrics frameMetrics);
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.mEnabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return this.mEnabled;
+	}
+
+	public void setListener(Listener listener) {
+		this.mListener = listener;
+	}
+
+	public Listener getListener() {
+		return this.mListener;
+	}
+
+	public int getCapacity() {
+		return CAPACITY;
+	}
+
+	public synchronized int getFrameCount() {
+		return this.mFrameCount;
+	}
+
+	public synchronized void reset() {
+		this.mNextIndex = 0;
+		this.mFrameCount = 0;
+	}
+
+	public synchronized long getLastDuration(int stage) {
+		checkStage(stage);
+		if (this.mFrameCount == 0) {
+			return -1L;
+		}
+		return this.mDurations[stage][((this.mNextIndex + CAPACITY - 1) % CAPACITY)];
+	}
+
+	public synchronized long getPercentile(int stage, float percentile) {
+		checkStage(stage);
+		if ((!(percentile >= 0.0F)) || (!(percentile <= 100.0F))) {
+			throw new IllegalArgumentException("Invalid percentile: "
+					+ percentile);
+		}
+		long[] durations = this.mDurations[stage];
+		int n = 0;
+		for (int i = 0; i < this.mFrameCount; i++) {
+			if (durations[i] >= 0L) {
+				this.mSorted[(n++)] = durations[i];
+			}
+		}
+		if (n == 0) {
+			return -1L;
+		}
+		Arrays.sort(this.mSorted, 0, n);
+		int rank = (int) Math.ceil(percentile / 100.0F * n) - 1;
+		return this.mSorted[Math.max(0, Math.min(n - 1, rank))];
+	}
+
+	boolean beginFrame() {
+		if (!this.mEnabled) {
+			return false;
+		}
+		Arrays.fill(this.mCurrent, -1L);
+		this.mFrameStartNanos = System.nanoTime();
+		return true;
+	}
+
+	long getFrameStartNanos() {
+		return this.mFrameStartNanos;
+	}
+
+	long record(int stage, long startNanos) {
+		long nowNanos = System.nanoTime();
+		long duration = nowNanos - startNanos;
+		this.mCurrent[stage] = this.mCurrent[stage] < 0L ? duration
+				: this.mCurrent[stage] + duration;
+		return nowNanos;
+	}
+
+	void set(int stage, long duration) {
+		this.mCurrent[stage] = duration;
+	}
+
+	void endFrame() {
+		this.mCurrent[FRAME] = System.nanoTime() - this.mFrameStartNanos;
+		synchronized (this) {
+			for (int i = 0; i < NUM_STAGES; i++) {
+				this.mDurations[i][this.mNextIndex] = this.mCurrent[i];
+			}
+			this.mNextIndex = (this.mNextIndex + 1) % CAPACITY;
+			this.mFrameCount = Math.min(this.mFrameCount + 1, CAPACITY);
+		}
+		Listener listener = this.mListener;
+		if (listener != null) {
+			listener.onFrameMetrics(this);
+		}
+	}
+
+	private static void checkStage(int stage) {
+		if ((stage < 0) || (stage >= NUM_STAGES)) {
+			throw new IllegalArgumentException("Invalid stage: " + stage);
+		}
+	}
+}
@@ -0,0 +1,309 @@
+package com.google.vrtoolkit.cardboard;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+public class GLStateTracker {
+	private static final String TAG = "GLStateTracker";
+	private static final int[] TRACKED_CAPS = { 2884, 2929, 2960, 3089 };
+	private static final String[] TRACKED_CAP_NAMES = { "cull face",
+			"depth test", "stencil test", "scissor test" };
+	private int mFramebuffer;
+	private boolean mFramebufferKnown;
+	private final int[] mViewport;
+	private boolean mViewportKnown;
+	private final int[] mScissorBox;
+	private boolean mScissorBoxKnown;
+	private final boolean[] mCapEnabled;
+	private final boolean[] mCapKnown;
+	private final boolean[] mColorMask;
+	private boolean mColorMaskKnown;
+	private boolean mDepthMask;
+	private boolean mDepthMaskKnown;
+	private int mStencilMask;
+	private boolean mStencilMaskKnown;
+	private volatile boolean mValidationEnabled;
+	private final int[] mScratch;
+	private final boolean[] mBooleanScratch;
+
+	public GLStateTracker() {
+		this.mViewport = new int[4];
+		this.mScissorBox = new int[4];
+		this.mScratch = new int[4];
+		this.mBooleanScratch = new boolean[4];
+		this.mColorMask = new boolean[4];
+		this.mCapEnabled = new boolean[TRACKED_CAPS.length];
+		this.mCapKnown = new boolean[TRACKED_CAPS.length];
+	}
+
+	public void invalidate() {
+		this.mFramebufferKnown = false;
+		this.mViewportKnown = false;
+		this.mScissorBoxKnown = false;
+		for (int i = 0; i < this.mCapKnown.length; i++) {
+			this.mCapKnown[i] = false;
+		}
+		this.mColorMaskKnown = false;
+		this.mDepthMaskKnown = false;
+		this.mStencilMaskKnown = false;
+	}
+
+	public void invalidateViewport() {
+		this.mViewportKnown = false;
+	}
+
+	public void invalidateEnabled(int cap) {
+		int index = getCapIndex(cap);
+		if (index != -1) {
+			this.mCapKnown[index] = false;
+		}
+	}
+
+	public void setValidationEnabled(boolean enabled) {
+		this.mValidationEnabled = enabled;
+	}
+
+	public boolean isValidationEnabled() {
+		return this.mValidationEnabled;
+	}
+
+	public void bindFramebuffer(int framebuffer) {
+		GLES20.glBindFramebuffer(36160, framebuffer);
+		this.mFramebuffer = framebuffer;
+		this.mFramebufferKnown = true;
+	}
+
+	public int getFramebuffer() {
+		if (!this.mFramebufferKnown) {
+			GLES20.glGetIntegerv(36006, this.mScratch, 0);
+			this.mFramebuffer = this.mScratch[0];
+			this.mFramebufferKnown = true;
+		}
+		return this.mFramebuffer;
+	}
+
+	public void setViewport(int x, int y, int width, int height) {
+		GLES20.glViewport(x, y, width, height);
+		this.mViewport[0] = x;
+		this.mViewport[1] = y;
+		this.mViewport[2] = width;
+		this.mViewport[3] = height;
+		this.mViewportKnown = true;
+	}
+
+	public void setViewport(Viewport viewport) {
+		setViewport(viewport.x, viewport.y, viewport.width, viewport.height);
+	}
+
+	public void getViewport(int[] viewport, int offset) {
+		if (offset + 4 > viewport.length) {
+			throw new IllegalArgumentException(
+					"Not enough space to write the result");
+		}
+		if (!this.mViewportKnown) {
+			GLES20.glGetIntegerv(2978, this.mViewport, 0);
+			this.mViewportKnown = true;
+		}
+		System.arraycopy(this.mViewport, 0, viewport, offset, 4);
+	}
+
+	public void setScissor(int x, int y, int width, int height) {
+		GLES20.glScissor(x, y, width, height);
+		this.mScissorBox[0] = x;
+		this.mScissorBox[1] = y;
+		this.mScissorBox[2] = width;
+		this.mScissorBox[3] = height;
+		this.mScissorBoxKnown = true;
+	}
+
+	public void setScissor(Viewport viewport) {
+		setScissor(viewport.x, viewport.y, viewport.width, viewport.height);
+	}
+
+	public void getScissor(int[] scissor, int offset) {
+		if (offset + 4 > scissor.length) {
+			throw new IllegalArgumentException(
+					"Not enough space to write the result");
+		}
+		if (!this.mScissorBoxKnown) {
+			GLES20.glGetIntegerv(3088, this.mScissorBox, 0);
+			this.mScissorBoxKnown = true;
+		}
+		System.arraycopy(this.mScissorBox, 0, scissor, offset, 4);
+	}
+
+	public void setColorMask(boolean red, boolean green, boolean blue,
+			boolean alpha) {
+		GLES20.glColorMask(red, green, blue, alpha);
+		this.mColorMask[0] = red;
+		this.mColorMask[1] = green;
+		this.mColorMask[2] = blue;
+		this.mColorMask[3] = alpha;
+		this.mColorMaskKnown = true;
+	}
+
+	public void getColorMask(boolean[] mask, int offset) {
+		if (offset + 4 > mask.length) {
+			throw new IllegalArgumentException(
+					"Not enough space to write the result");
+		}
+		if (!this.mColorMaskKnown) {
+			GLES20.glGetBooleanv(3107, this.mColorMask, 0);
+			this.mColorMaskKnown = true;
+		}
+		System.arraycopy(this.mColorMask, 0, mask, offset, 4);
+	}
+
+	public void setDepthMask(boolean enabled) {
+		GLES20.glDepthMask(enabled);
+		this.mDepthMask = enabled;
+		this.mDepthMaskKnown = true;
+	}
+
+	public boolean getDepthMask() {
+		if (!this.mDepthMaskKnown) {
+			GLES20.glGetBooleanv(2930, this.mBooleanScratch, 0);
+			this.mDepthMask = this.mBooleanScratch[0];
+			this.mDepthMaskKnown = true;
+		}
+		return this.mDepthMask;
+	}
+
+	public void setStencilMask(int mask) {
+		GLES20.glStencilMask(mask);
+		this.mStencilMask = mask;
+		this.mStencilMaskKnown = true;
+	}
+
+	public int getStencilMask() {
+		if (!this.mStencilMaskKnown) {
+			GLES20.glGetIntegerv(2968, this.mScratch, 0);
+			this.mStencilMask = this.mScratch[0];
+			this.mStencilMaskKnown = true;
+		}
+		return this.mStencilMask;
+	}
+
+	public void setEnabled(int cap, boolean enabled) {
+		if (enabled) {
+			GLES20.glEnable(cap);
+		} else {
+			GLES20.glDisable(cap);
+		}
+		int index = getCapIndex(cap);
+		if (index != -1) {
+			this.mCapEnabled[index] = enabled;
+			this.mCapKnown[index] = true;
+		}
+	}
+
+	public boolean isEnabled(int cap) {
+		int index = getCapIndex(cap);
+		if (index == -1) {
+			return GLES20.glIsEnabled(cap);
+		}
+		if (!this.mCapKnown[index]) {
+			this.mCapEnabled[index] = GLES20.glIsEnabled(cap);
+			this.mCapKnown[index] = true;
+		}
+		return this.mCapEnabled[index];
+	}
+
+	public void validate(String where) {
+		if (!this.mValidationEnabled) {
+			return;
+		}
+		if (this.mFramebufferKnown) {
+			GLES20.glGetIntegerv(36006, this.mScratch, 0);
+			if (this.mScratch[0] != this.mFramebuffer) {
+				Log.w(TAG, where + ": framebuffer binding is "
+						+ this.mScratch[0] + ", expected " + this.mFramebuffer);
+				this.mFramebuffer = this.mScratch[0];
+			}
+		}
+		if (this.mViewportKnown) {
+			GLES20.glGetIntegerv(2978, this.mScratch, 0);
+			if (!rectEquals(this.mScratch, this.mViewport)) {
+				Log.w(TAG, where + ": viewport is " + rectToString(this.mScratch)
+						+ ", expected " + rectToString(this.mViewport));
+				System.arraycopy(this.mScratch, 0, this.mViewport, 0, 4);
+			}
+		}
+		if (this.mScissorBoxKnown) {
+			GLES20.glGetIntegerv(3088, this.mScratch, 0);
+			if (!rectEquals(this.mScratch, this.mScissorBox)) {
+				Log.w(TAG, where + ": scissor box is "
+						+ rectToString(this.mScratch) + ", expected "
+						+ rectToString(this.mScissorBox));
+				System.arraycopy(this.mScratch, 0, this.mScissorBox, 0, 4);
+			}
+		}
+		if (this.mColorMaskKnown) {
+			GLES20.glGetBooleanv(3107, this.mBooleanScratch, 0);
+			if (!maskEquals(this.mBooleanScratch, this.mColorMask)) {
+				Log.w(TAG, where + ": color mask is "
+						+ maskToString(this.mBooleanScratch) + ", expected "
+						+ maskToString(this.mColorMask));
+				System.arraycopy(this.mBooleanScratch, 0, this.mColorMask, 0,
+						4);
+			}
+		}
+		if (this.mDepthMaskKnown) {
+			GLES20.glGetBooleanv(2930, this.mBooleanScratch, 0);
+			if (this.mBooleanScratch[0] != this.mDepthMask) {
+				Log.w(TAG, where + ": depth mask is " + this.mBooleanScratch[0]
+						+ ", expected " + this.mDepthMask);
+				this.mDepthMask = this.mBooleanScratch[0];
+			}
+		}
+		if (this.mStencilMaskKnown) {
+			GLES20.glGetIntegerv(2968, this.mScratch, 0);
+			if (this.mScratch[0] != this.mStencilMask) {
+				Log.w(TAG, where + ": stencil mask is " + this.mScratch[0]
+						+ ", expected " + this.mStencilMask);
+				this.mStencilMask = this.mScratch[0];
+			}
+		}
+		for (int i = 0; i < TRACKED_CAPS.length; i++) {
+			if (!this.mCapKnown[i]) {
+				continue;
+			}
+			boolean enabled = GLES20.glIsEnabled(TRACKED_CAPS[i]);
+			if (enabled != this.mCapEnabled[i]) {
+				Log.w(TAG, where + ": " + TRACKED_CAP_NAMES[i] + " is "
+						+ (enabled ? "enabled" : "disabled") + ", expected "
+						+ (this.mCapEnabled[i] ? "enabled" : "disabled"));
+				this.mCapEnabled[i] = enabled;
+			}
+		}
+	}
+
+	private static int getCapIndex(int cap) {
+		for (int i = 0; i < TRACKED_CAPS.length; i++) {
+			if (TRACKED_CAPS[i] == cap) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean rectEquals(int[] a, int[] b) {
+		return (a[0] == b[0]) && (a[1] == b[1]) && (a[2] == b[2])
+				&& (a[3] == b[3]);
+	}
+
+	private static boolean maskEquals(boolean[] a, boolean[] b) {
+		return (a[0] == b[0]) && (a[1] == b[1]) && (a[2] == b[2])
+				&& (a[3] == b[3]);
+	}
+
+	private static String maskToString(boolean[] mask) {
+		return "{r:" + mask[0] + " g:" + mask[1] + " b:" + mask[2] + " a:"
+				+ mask[3] + "}";
+	}
+
+	private static String rectToString(int[] rect) {
+		return "{x:" + rect[0] + " y:" + rect[1] + " width:" + rect[2]
+				+ " height:" + rect[3] + "}";
+	}
+}
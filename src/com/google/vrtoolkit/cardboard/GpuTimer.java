@@ -0,0 +1,160 @@
+package com.google.vrtoolkit.cardboard;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+class GpuTimer {
+	public static final int EYES = 0;
+	public static final int DISTORTION = 1;
+	private static final int NUM_SECTIONS = 2;
+	private static final int MAX_FRAMES_IN_FLIGHT = 4;
+	private static final int TIME_ELAPSED = 35007;
+	private static final int QUERY_RESULT = 34918;
+	private static final int QUERY_RESULT_AVAILABLE = 34919;
+	private static final int GPU_DISJOINT = 36795;
+	private final int[] mQueryIds;
+	private final boolean[] mIssued;
+	private final long[] mFrameNumbers;
+	private final long[] mResults;
+	private final int[] mScratch;
+	private boolean mSupported;
+	private int mFrameSlot;
+	private long mFrameNumber;
+	private int mOldestSlot;
+	private int mPendingFrames;
+	private int mActiveSection;
+	private boolean mFrameStarted;
+	private long mResultFrameNumber;
+
+	public GpuTimer() {
+		this.mQueryIds = new int[MAX_FRAMES_IN_FLIGHT * NUM_SECTIONS];
+		this.mIssued = new boolean[MAX_FRAMES_IN_FLIGHT * NUM_SECTIONS];
+		this.mFrameNumbers = new long[MAX_FRAMES_IN_FLIGHT];
+		this.mResults = new long[NUM_SECTIONS];
+		this.mScratch = new int[1];
+		this.mActiveSection = -1;
+		this.mResultFrameNumber = -1L;
+	}
+
+	public void reset(boolean supported) {
+		if (this.mSupported) {
+			GLES30.glDeleteQueries(this.mQueryIds.length, this.mQueryIds, 0);
+		}
+		this.mSupported = supported;
+		if (supported) {
+			GLES30.glGenQueries(this.mQueryIds.length, this.mQueryIds, 0);
+		}
+		this.mOldestSlot = 0;
+		this.mPendingFrames = 0;
+		this.mActiveSection = -1;
+		this.mFrameStarted = false;
+		this.mResultFrameNumber = -1L;
+	}
+
+	public boolean isSupported() {
+		return this.mSupported;
+	}
+
+	public void beginFrame() {
+		if (!this.mSupported) {
+			return;
+		}
+		pollResults();
+		if (this.mPendingFrames == MAX_FRAMES_IN_FLIGHT) {
+			this.mFrameStarted = false;
+			return;
+		}
+		this.mFrameSlot = (this.mOldestSlot + this.mPendingFrames)
+				% MAX_FRAMES_IN_FLIGHT;
+		for (int i = 0; i < NUM_SECTIONS; i++) {
+			this.mIssued[(this.mFrameSlot * NUM_SECTIONS + i)] = false;
+		}
+		this.mFrameNumbers[this.mFrameSlot] = this.mFrameNumber;
+		this.mFrameStarted = true;
+	}
+
+	public void begin(int section) {
+		if ((!this.mFrameStarted) || (this.mActiveSection != -1)) {
+			return;
+		}
+		int index = this.mFrameSlot * NUM_SECTIONS + section;
+		GLES30.glBeginQuery(TIME_ELAPSED, this.mQueryIds[index]);
+		this.mIssued[index] = true;
+		this.mActiveSection = section;
+	}
+
+	public void end(int section) {
+		if (this.mActiveSection != section) {
+			return;
+		}
+		GLES30.glEndQuery(TIME_ELAPSED);
+		this.mActiveSection = -1;
+	}
+
+	public void endFrame() {
+		if (this.mActiveSection != -1) {
+			end(this.mActiveSection);
+		}
+		if (this.mFrameStarted) {
+			this.mPendingFrames += 1;
+			this.mFrameStarted = false;
+		}
+		this.mFrameNumber += 1;
+	}
+
+	public long getResultFrameNumber() {
+		return this.mResultFrameNumber;
+	}
+
+	public long getResult(int section) {
+		return this.mResults[section];
+	}
+
+	public long getResultTotal() {
+		long total = 0L;
+		for (int i = 0; i < NUM_SECTIONS; i++) {
+			if (this.mResults[i] < 0L) {
+				return -1L;
+			}
+			total += this.mResults[i];
+		}
+		return total;
+	}
+
+	public long getFrameNumber() {
+		return this.mFrameNumber;
+	}
+
+	private void pollResults() {
+		GLES20.glGetIntegerv(GPU_DISJOINT, this.mScratch, 0);
+		boolean disjoint = this.mScratch[0] != 0;
+		while (this.mPendingFrames > 0) {
+			int slot = this.mOldestSlot;
+			int base = slot * NUM_SECTIONS;
+			if (!disjoint) {
+				for (int i = 0; i < NUM_SECTIONS; i++) {
+					if (!this.mIssued[(base + i)]) {
+						continue;
+					}
+					GLES30.glGetQueryObjectuiv(this.mQueryIds[(base + i)],
+							QUERY_RESULT_AVAILABLE, this.mScratch, 0);
+					if (this.mScratch[0] == 0) {
+						return;
+					}
+				}
+				for (int i = 0; i < NUM_SECTIONS; i++) {
+					if (this.mIssued[(base + i)]) {
+						GLES30.glGetQueryObjectuiv(this.mQueryIds[(base + i)],
+								QUERY_RESULT, this.mScratch, 0);
+						this.mResults[i] = this.mScratch[0] & 0xFFFFFFFFL;
+					} else {
+						this.mResults[i] = -1L;
+					}
+				}
+				this.mResultFrameNumber = this.mFrameNumbers[slot];
+			}
+			this.mOldestSlot = (slot + 1) % MAX_FRAMES_IN_FLIGHT;
+			this.mPendingFrames -= 1;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.google.vrtoolkit.cardboard;
+
+class LatencyEstimator {
+	private static final float AVERAGE_WEIGHT = 0.05F;
+	private static final float PERIOD_WEIGHT = 0.02F;
+	private static final float PERIOD_TOLERANCE = 0.1F;
+	private static final float COMPOSITION_PERIODS = 1.0F;
+	private static final float SCANOUT_PERIODS = 0.5F;
+	private static final long MAX_LATENCY_NANOS = 200000000L;
+	private volatile long mVsyncTimeNanos;
+	private volatile long mVsyncPeriodNanos;
+	private float mAverageLatencyNanos;
+	private boolean mHasAverage;
+
+	public LatencyEstimator(float refreshRate) {
+		if (!(refreshRate > 0.0F)) {
+			throw new IllegalArgumentException("Invalid refresh rate: "
+					+ refreshRate);
+		}
+		this.mVsyncPeriodNanos = ((long) (1.0E9F / refreshRate));
+	}
+
+	public void onVsync(long frameTimeNanos) {
+		long lastVsyncTimeNanos = this.mVsyncTimeNanos;
+		long period = this.mVsyncPeriodNanos;
+		if ((lastVsyncTimeNanos != 0L) && (frameTimeNanos > lastVsyncTimeNanos)) {
+			long interval = frameTimeNanos - lastVsyncTimeNanos;
+			long periods = Math.max(1L, Math.round((double) interval / period));
+			float measured = (float) interval / periods;
+			if (Math.abs(measured - period) < period * PERIOD_TOLERANCE) {
+				this.mVsyncPeriodNanos = (period + (long) (PERIOD_WEIGHT * (measured - period)));
+			}
+		}
+		this.mVsyncTimeNanos = frameTimeNanos;
+	}
+
+	public long getVsyncPeriodNanos() {
+		return this.mVsyncPeriodNanos;
+	}
+
+	public void resetVsync() {
+		this.mVsyncTimeNanos = 0L;
+	}
+
+	public boolean addFrame(long poseTimeNanos, long frameDoneNanos) {
+		long vsyncTimeNanos = this.mVsyncTimeNanos;
+		long period = this.mVsyncPeriodNanos;
+		if ((vsyncTimeNanos == 0L) || (poseTimeNanos == 0L)
+				|| (frameDoneNanos < poseTimeNanos)) {
+			return false;
+		}
+		long periodsToVsync = (long) Math.floor((double) (frameDoneNanos - vsyncTimeNanos)
+				/ period) + 1L;
+		long displayTimeNanos = vsyncTimeNanos + periodsToVsync * period
+				+ (long) ((COMPOSITION_PERIODS + SCANOUT_PERIODS) * period);
+		long latency = displayTimeNanos - poseTimeNanos;
+		if ((latency <= 0L) || (latency > MAX_LATENCY_NANOS)) {
+			return false;
+		}
+		if (this.mHasAverage) {
+			this.mAverageLatencyNanos += AVERAGE_WEIGHT
+					* (latency - this.mAverageLatencyNanos);
+		} else {
+			this.mAverageLatencyNanos = latency;
+			this.mHasAverage = true;
+		}
+		return true;
+	}
+
+	public double getLatencySeconds() {
+		return this.mHasAverage ? this.mAverageLatencyNanos * 1.0E-9D : -1.0D;
+	}
+}
@@ -0,0 +1,158 @@
+package com.google.vrtoolkit.cardboard;
+
+class ResolutionGovernor {
+	private static final float MIN_SCALE = 0.5F;
+	private static final float MAX_SCALE = 1.0F;
+	private static final float SCALE_STEP = 0.05F;
+	private static final float AVERAGE_WEIGHT = 0.1F;
+	private static final float LOWER_THRESHOLD = 1.15F;
+	private static final float RAISE_THRESHOLD = 1.05F;
+	private static final int LOWER_HOLD_FRAMES = 10;
+	private static final int MIN_RAISE_HOLD_FRAMES = 120;
+	private static final int MAX_RAISE_HOLD_FRAMES = 1920;
+	private static final float GPU_BOUND_RATIO = 0.75F;
+	private static final long MAX_FRAME_TIME_NANOS = 250000000L;
+	private float mTargetFrameTimeNanos;
+	private float mAverageFrameTimeNanos;
+	private boolean mHasAverage;
+	private float mAverageGpuTimeNanos;
+	private boolean mHasGpuAverage;
+	private float mScale;
+	private int mFramesSinceChange;
+	private int mFramesWithinBudget;
+	private boolean mLastChangeRaised;
+	private float mFailedScale;
+	private int mFailedScaleHoldFrames;
+
+	public ResolutionGovernor(float targetFrameRate) {
+		setTargetFrameRate(targetFrameRate);
+		reset(MAX_SCALE);
+	}
+
+	public void setTargetFrameRate(float frameRate) {
+		if (!(frameRate > 0.0F)) {
+			throw new IllegalArgumentException("Invalid target frame rate: "
+					+ frameRate);
+		}
+		this.mTargetFrameTimeNanos = 1.0E9F / frameRate;
+		this.mHasAverage = false;
+		this.mHasGpuAverage = false;
+		this.mFramesWithinBudget = 0;
+	}
+
+	public float getTargetFrameRate() {
+		return 1.0E9F / this.mTargetFrameTimeNanos;
+	}
+
+	public void reset(float scale) {
+		this.mScale = quantize(scale);
+		this.mHasAverage = false;
+		this.mHasGpuAverage = false;
+		this.mFramesSinceChange = 0;
+		this.mFramesWithinBudget = 0;
+		this.mLastChangeRaised = false;
+		this.mFailedScale = 2.0F * MAX_SCALE;
+		this.mFailedScaleHoldFrames = MIN_RAISE_HOLD_FRAMES;
+	}
+
+	public float getScale() {
+		return this.mScale;
+	}
+
+	public float getAverageFrameTimeNanos() {
+		return this.mHasAverage ? this.mAverageFrameTimeNanos : 0.0F;
+	}
+
+	public float getAverageGpuTimeNanos() {
+		return this.mHasGpuAverage ? this.mAverageGpuTimeNanos : 0.0F;
+	}
+
+	public void addGpuTime(long gpuTimeNanos) {
+		if ((gpuTimeNanos <= 0L) || (gpuTimeNanos > MAX_FRAME_TIME_NANOS)) {
+			return;
+		}
+		if (this.mHasGpuAverage) {
+			this.mAverageGpuTimeNanos += AVERAGE_WEIGHT
+					* (gpuTimeNanos - this.mAverageGpuTimeNanos);
+		} else {
+			this.mAverageGpuTimeNanos = gpuTimeNanos;
+			this.mHasGpuAverage = true;
+		}
+	}
+
+	public boolean addFrameTime(long frameTimeNanos) {
+		if ((frameTimeNanos <= 0L) || (frameTimeNanos > MAX_FRAME_TIME_NANOS)) {
+			return false;
+		}
+		if (this.mHasAverage) {
+			this.mAverageFrameTimeNanos += AVERAGE_WEIGHT
+					* (frameTimeNanos - this.mAverageFrameTimeNanos);
+		} else {
+			this.mAverageFrameTimeNanos = frameTimeNanos;
+			this.mHasAverage = true;
+		}
+		this.mFramesSinceChange += 1;
+
+		if (this.mAverageFrameTimeNanos > this.mTargetFrameTimeNanos
+				* LOWER_THRESHOLD) {
+			this.mFramesWithinBudget = 0;
+			if ((this.mFramesSinceChange < LOWER_HOLD_FRAMES)
+					|| (this.mScale <= MIN_SCALE)) {
+				return false;
+			}
+			if ((this.mHasGpuAverage)
+					&& (this.mAverageGpuTimeNanos < this.mTargetFrameTimeNanos
+							* GPU_BOUND_RATIO)) {
+				return false;
+			}
+			if ((this.mLastChangeRaised)
+					&& (this.mFramesSinceChange < MIN_RAISE_HOLD_FRAMES)) {
+				this.mFailedScaleHoldFrames = this.mScale == this.mFailedScale ? Math
+						.min(2 * this.mFailedScaleHoldFrames,
+								MAX_RAISE_HOLD_FRAMES)
+						: 2 * MIN_RAISE_HOLD_FRAMES;
+				this.mFailedScale = this.mScale;
+			}
+			return setScale(this.mScale - SCALE_STEP, false);
+		}
+		if (this.mAverageFrameTimeNanos > this.mTargetFrameTimeNanos
+				* RAISE_THRESHOLD) {
+			this.mFramesWithinBudget = 0;
+			return false;
+		}
+		this.mFramesWithinBudget += 1;
+		if (this.mScale >= MAX_SCALE) {
+			return false;
+		}
+		if (this.mScale >= this.mFailedScale) {
+			this.mFailedScale = 2.0F * MAX_SCALE;
+		}
+		float scale = quantize(this.mScale + SCALE_STEP);
+		if ((this.mHasGpuAverage)
+				&& (this.mAverageGpuTimeNanos * (scale * scale)
+						/ (this.mScale * this.mScale) > this.mTargetFrameTimeNanos)) {
+			return false;
+		}
+		int holdFrames = scale >= this.mFailedScale ? this.mFailedScaleHoldFrames
+				: MIN_RAISE_HOLD_FRAMES;
+		if (this.mFramesWithinBudget < holdFrames) {
+			return false;
+		}
+		return setScale(scale, true);
+	}
+
+	private boolean setScale(float scale, boolean raised) {
+		this.mScale = quantize(scale);
+		this.mHasAverage = false;
+		this.mHasGpuAverage = false;
+		this.mFramesSinceChange = 0;
+		this.mFramesWithinBudget = 0;
+		this.mLastChangeRaised = raised;
+		return true;
+	}
+
+	private static float quantize(float scale) {
+		float steps = Math.round(scale / SCALE_STEP);
+		return Math.max(MIN_SCALE, Math.min(MAX_SCALE, steps * SCALE_STEP));
+	}
+}
@@ -5,28 +5,85 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.opengl.Matrix;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import com.google.vrtoolkit.cardboard.sensors.internal.Matrix3x3d;
 import com.google.vrtoolkit.cardboard.sensors.internal.OrientationEKF;
+import com.google.vrtoolkit.cardboard.sensors.internal.So3Util;
+import com.google.vrtoolkit.cardboard.sensors.internal.Vector3d;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class HeadTracker {
 	private static final String TAG = "HeadTracker";
 	private static final double NS2S = 1.0E-9D;
 	private static final int[] INPUT_SENSORS = { 1, 4 };
+	private static final int POSE_INDEX_MASK = 3;
+	private static final int POSE_UPDATED = 4;
+	private static final double DEFAULT_PREDICTION_HORIZON_SECONDS = 0.03333333333333333D;
+	private static final double MAX_PREDICTION_HORIZON_SECONDS = 0.2D;
+	private static final int MAX_BATCHED_SAMPLES = 256;
 	private final Context mContext;
-	private final float[] mEkfToHeadTracker = new float[16];
-	private final float[] mTmpHeadView = new float[16];
 	private final float[] mTmpRotatedEvent = new float[3];
 	private Looper mSensorLooper;
 	private SensorEventListener mSensorEventListener;
 	private volatile boolean mTracking;
+	private volatile int mMaxReportLatencyUs;
+	private int mBatchedReportLatencyUs;
+	private final SensorSample[] mBatchedSamples;
+	private int mNumBatchedSamples;
+	private Handler mSensorHandler;
+	private final Runnable mDrainBatchedSamples = new Runnable() {
+		public void run() {
+			HeadTracker.this.drainBatchedSamples();
+		}
+	};
 	private final OrientationEKF mTracker = new OrientationEKF();
+	private final SensorClockEstimator mClockEstimator = new SensorClockEstimator();
 	private long mLastGyroEventTimeNanos;
+	private final HeadPose[] mPoses = { new HeadPose(), new HeadPose(),
+			new HeadPose() };
+	private final AtomicInteger mPublishedPose = new AtomicInteger(1);
+	private int mWritePose = 0;
+	private int mReadPose = 2;
+	private final Object mReadLock = new Object();
+	private final Vector3d mPredictedMu = new Vector3d();
+	private final Matrix3x3d mPredictedMotion = new Matrix3x3d();
+	private final Matrix3x3d mPredictedState = new Matrix3x3d();
+	private volatile double mMeasuredPredictionHorizonSeconds = DEFAULT_PREDICTION_HORIZON_SECONDS;
+	private volatile double mPredictionHorizonSeconds;
+	private volatile boolean mPredictionHorizonOverridden;
 
 	public HeadTracker(Context context) {
 		this.mContext = context;
-		Matrix.setRotateEulerM(this.mEkfToHeadTracker, 0, -90.0F, 0.0F, 0.0F);
+		this.mBatchedSamples = new SensorSample[MAX_BATCHED_SAMPLES];
+		for (int i = 0; i < MAX_BATCHED_SAMPLES; i++) {
+			this.mBatchedSamples[i] = new SensorSample();
+		}
+	}
+
+	private static class SensorSample {
+		public int sensorType;
+		public long timestamp;
+		public long receiveTimeNanos;
+		public final float[] values;
+
+		private SensorSample() {
+			this.values = new float[3];
+		}
+	}
+
+	private static class HeadPose {
+		public final Matrix3x3d so3SensorFromWorld;
+		public final float[] gyro;
+		public long gyroEventTimeNanos;
+		public long clockOffsetNanos;
+
+		private HeadPose() {
+			this.so3SensorFromWorld = new Matrix3x3d();
+			this.so3SensorFromWorld.setIdentity();
+			this.gyro = new float[3];
+		}
 	}
 
 	public void startTracking() {
@@ -34,6 +91,12 @@ public class HeadTracker {
 			return;
 		}
 		this.mTracker.reset();
+		this.mClockEstimator.reset();
+		this.mNumBatchedSamples = 0;
+		this.mLastGyroEventTimeNanos = 0L;
+		resetPoses();
+		this.mBatchedReportLatencyUs = Build.VERSION.SDK_INT >= 19 ? this.mMaxReportLatencyUs
+				: 0;
 
 		this.mSensorEventListener = new SensorEventListener() {
 			public void onSensorChanged(SensorEvent event) {
@@ -49,14 +112,22 @@ public class HeadTracker {
 
 				HeadTracker.this.mSensorLooper = Looper.myLooper();
 				Handler handler = new Handler();
+				HeadTracker.this.mSensorHandler = handler;
 
 				SensorManager sensorManager = (SensorManager) HeadTracker.this.mContext
 						.getSystemService("sensor");
 				for (int sensorType : HeadTracker.INPUT_SENSORS) {
 					Sensor sensor = sensorManager.getDefaultSensor(sensorType);
-					sensorManager.registerListener(
-							HeadTracker.this.mSensorEventListener, sensor, 0,
-							handler);
+					if (HeadTracker.this.mBatchedReportLatencyUs > 0) {
+						sensorManager.registerListener(
+								HeadTracker.this.mSensorEventListener, sensor,
+								0, HeadTracker.this.mBatchedReportLatencyUs,
+								handler);
+					} else {
+						sensorManager.registerListener(
+								HeadTracker.this.mSensorEventListener, sensor,
+								0, handler);
+					}
 				}
 				Looper.loop();
 			}
@@ -65,6 +136,22 @@ public class HeadTracker {
 		this.mTracking = true;
 	}
 
+	private void resetPoses() {
+		synchronized (this.mReadLock) {
+			for (HeadPose pose : this.mPoses) {
+				pose.so3SensorFromWorld.setIdentity();
+				pose.gyro[0] = 0.0F;
+				pose.gyro[1] = 0.0F;
+				pose.gyro[2] = 0.0F;
+				pose.gyroEventTimeNanos = 0L;
+				pose.clockOffsetNanos = 0L;
+			}
+			this.mPublishedPose.set(1);
+			this.mWritePose = 0;
+			this.mReadPose = 2;
+		}
+	}
+
 	public void stopTracking() {
 		if (!this.mTracking) {
 			return;
@@ -80,40 +167,143 @@ public class HeadTracker {
 		this.mTracking = false;
 	}
 
+	public void setMaxReportLatencyUs(int maxReportLatencyUs) {
+		if (maxReportLatencyUs < 0) {
+			throw new IllegalArgumentException("Invalid max report latency: "
+					+ maxReportLatencyUs);
+		}
+		this.mMaxReportLatencyUs = maxReportLatencyUs;
+	}
+
+	public int getMaxReportLatencyUs() {
+		return this.mMaxReportLatencyUs;
+	}
+
+	public void setPredictionHorizon(double seconds) {
+		checkPredictionHorizon(seconds);
+		this.mPredictionHorizonSeconds = seconds;
+		this.mPredictionHorizonOverridden = true;
+	}
+
+	public void clearPredictionHorizon() {
+		this.mPredictionHorizonOverridden = false;
+	}
+
+	public void setMeasuredPredictionHorizon(double seconds) {
+		checkPredictionHorizon(seconds);
+		this.mMeasuredPredictionHorizonSeconds = seconds;
+	}
+
+	public double getPredictionHorizon() {
+		return this.mPredictionHorizonOverridden ? this.mPredictionHorizonSeconds
+				: this.mMeasuredPredictionHorizonSeconds;
+	}
+
+	private static void checkPredictionHorizon(double seconds) {
+		if ((!(seconds >= 0.0D)) || (!(seconds <= MAX_PREDICTION_HORIZON_SECONDS))) {
+			throw new IllegalArgumentException("Invalid prediction horizon: "
+					+ seconds);
+		}
+	}
+
 	public void getLastHeadView(float[] headView, int offset) {
 		if (offset + 16 > headView.length) {
 			throw new IllegalArgumentException(
 					"Not enough space to write the result");
 		}
-		synchronized (this.mTracker) {
-			double secondsSinceLastGyroEvent = (System.nanoTime() - this.mLastGyroEventTimeNanos) * 1.0E-9D;
+		synchronized (this.mReadLock) {
+			if ((this.mPublishedPose.get() & POSE_UPDATED) != 0) {
+				this.mReadPose = (this.mPublishedPose.getAndSet(this.mReadPose) & POSE_INDEX_MASK);
+			}
+			HeadPose pose = this.mPoses[this.mReadPose];
+			long sensorTimeNanos = System.nanoTime() - pose.clockOffsetNanos;
+			double secondsSinceLastGyroEvent = (sensorTimeNanos - pose.gyroEventTimeNanos) * 1.0E-9D;
 
-			double secondsToPredictForward = secondsSinceLastGyroEvent + 0.03333333333333333D;
-			double[] mat = this.mTracker
-					.getPredictedGLMatrix(secondsToPredictForward);
-			for (int i = 0; i < headView.length; i++) {
-				this.mTmpHeadView[i] = ((float) mat[i]);
+			double dT = secondsSinceLastGyroEvent + getPredictionHorizon();
+			this.mPredictedMu.set(pose.gyro[0] * -dT, pose.gyro[1] * -dT,
+					pose.gyro[2] * -dT);
+			So3Util.sO3FromMu(this.mPredictedMu, this.mPredictedMotion);
+			Matrix3x3d.mult(this.mPredictedMotion, pose.so3SensorFromWorld,
+					this.mPredictedState);
+			double[] m = this.mPredictedState.m;
+			for (int r = 0; r < 3; r++) {
+				headView[(offset + r)] = ((float) m[(3 * r)]);
+				headView[(offset + 4 + r)] = ((float) m[(3 * r + 2)]);
+				headView[(offset + 8 + r)] = ((float) -m[(3 * r + 1)]);
+				headView[(offset + 12 + r)] = 0.0F;
 			}
+			headView[(offset + 3)] = 0.0F;
+			headView[(offset + 7)] = 0.0F;
+			headView[(offset + 11)] = 0.0F;
+			headView[(offset + 15)] = 1.0F;
 		}
-		Matrix.multiplyMM(headView, offset, this.mTmpHeadView, 0,
-				this.mEkfToHeadTracker, 0);
+	}
+
+	void publishPose() {
+		HeadPose pose = this.mPoses[this.mWritePose];
+		this.mTracker.getState(pose.so3SensorFromWorld, pose.gyro);
+		pose.gyroEventTimeNanos = this.mLastGyroEventTimeNanos;
+		pose.clockOffsetNanos = this.mClockEstimator.getOffsetNanos();
+		this.mWritePose = (this.mPublishedPose.getAndSet(this.mWritePose
+				| POSE_UPDATED) & POSE_INDEX_MASK);
 	}
 
 	private void processSensorEvent(SensorEvent event) {
 		long timeNanos = System.nanoTime();
+		int sensorType = event.sensor.getType();
+		if ((sensorType != 1) && (sensorType != 4)) {
+			return;
+		}
+		if (this.mBatchedReportLatencyUs == 0) {
+			processSample(sensorType, event.values, event.timestamp, timeNanos);
+			publishPose();
+			return;
+		}
+		if (this.mNumBatchedSamples == MAX_BATCHED_SAMPLES) {
+			drainBatchedSamples();
+		}
+		if (this.mNumBatchedSamples == 0) {
+			this.mSensorHandler.post(this.mDrainBatchedSamples);
+		}
+		SensorSample sample = this.mBatchedSamples[this.mNumBatchedSamples];
+		sample.sensorType = sensorType;
+		sample.timestamp = event.timestamp;
+		sample.receiveTimeNanos = timeNanos;
+		System.arraycopy(event.values, 0, sample.values, 0, 3);
 
-		this.mTmpRotatedEvent[0] = (-event.values[1]);
-		this.mTmpRotatedEvent[1] = event.values[0];
-		this.mTmpRotatedEvent[2] = event.values[2];
-		synchronized (this.mTracker) {
-			if (event.sensor.getType() == 1) {
-				this.mTracker
-						.processAcc(this.mTmpRotatedEvent, event.timestamp);
-			} else if (event.sensor.getType() == 4) {
-				this.mLastGyroEventTimeNanos = timeNanos;
-				this.mTracker.processGyro(this.mTmpRotatedEvent,
-						event.timestamp);
-			}
+		int i = this.mNumBatchedSamples++;
+		while ((i > 0) && (this.mBatchedSamples[(i - 1)].timestamp > sample.timestamp)) {
+			this.mBatchedSamples[i] = this.mBatchedSamples[(i - 1)];
+			i--;
+		}
+		this.mBatchedSamples[i] = sample;
+	}
+
+	private void drainBatchedSamples() {
+		if (this.mNumBatchedSamples == 0) {
+			return;
+		}
+		for (int i = 0; i < this.mNumBatchedSamples; i++) {
+			SensorSample sample = this.mBatchedSamples[i];
+			processSample(sample.sensorType, sample.values, sample.timestamp,
+					sample.receiveTimeNanos);
+		}
+		this.mNumBatchedSamples = 0;
+		publishPose();
+	}
+
+	void processSample(int sensorType, float[] values, long timestamp,
+			long receiveTimeNanos) {
+		this.mClockEstimator.addSample(timestamp, receiveTimeNanos);
+
+		this.mTmpRotatedEvent[0] = (-values[1]);
+		this.mTmpRotatedEvent[1] = values[0];
+		this.mTmpRotatedEvent[2] = values[2];
+		if (sensorType == 1) {
+			this.mTracker.processAcc(this.mTmpRotatedEvent, timestamp);
+		} else {
+			this.mLastGyroEventTimeNanos = timestamp;
+			this.mTracker.processGyro(this.mTmpRotatedEvent, timestamp);
 		}
 	}
 }
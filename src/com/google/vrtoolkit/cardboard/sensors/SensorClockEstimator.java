@@ -0,0 +1,38 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+class SensorClockEstimator {
+	private static final long WINDOW_NANOS = 1000000000L;
+	private long mWindowStartNanos;
+	private long mWindowMinOffsetNanos;
+	private long mPreviousWindowMinOffsetNanos;
+	private boolean mHasEstimate;
+
+	public void reset() {
+		this.mHasEstimate = false;
+	}
+
+	public boolean hasEstimate() {
+		return this.mHasEstimate;
+	}
+
+	public void addSample(long eventTimeNanos, long receiveTimeNanos) {
+		long offset = receiveTimeNanos - eventTimeNanos;
+		if (!this.mHasEstimate) {
+			this.mPreviousWindowMinOffsetNanos = offset;
+			this.mWindowMinOffsetNanos = offset;
+			this.mWindowStartNanos = receiveTimeNanos;
+			this.mHasEstimate = true;
+		} else if (receiveTimeNanos - this.mWindowStartNanos >= WINDOW_NANOS) {
+			this.mPreviousWindowMinOffsetNanos = this.mWindowMinOffsetNanos;
+			this.mWindowMinOffsetNanos = offset;
+			this.mWindowStartNanos = receiveTimeNanos;
+		} else if (offset < this.mWindowMinOffsetNanos) {
+			this.mWindowMinOffsetNanos = offset;
+		}
+	}
+
+	public long getOffsetNanos() {
+		return Math.min(this.mWindowMinOffsetNanos,
+				this.mPreviousWindowMinOffsetNanos);
+	}
+}
@@ -163,15 +163,15 @@ public class Matrix3x3d {
 	}
 
 	public static void add(Matrix3x3d a, Matrix3x3d b, Matrix3x3d result) {
-		a.m[0] += b.m[0];
-		a.m[1] += b.m[1];
-		a.m[2] += b.m[2];
-		a.m[3] += b.m[3];
-		a.m[4] += b.m[4];
-		a.m[5] += b.m[5];
-		a.m[6] += b.m[6];
-		a.m[7] += b.m[7];
-		a.m[8] += b.m[8];
+		result.m[0] = a.m[0] + b.m[0];
+		result.m[1] = a.m[1] + b.m[1];
+		result.m[2] = a.m[2] + b.m[2];
+		result.m[3] = a.m[3] + b.m[3];
+		result.m[4] = a.m[4] + b.m[4];
+		result.m[5] = a.m[5] + b.m[5];
+		result.m[6] = a.m[6] + b.m[6];
+		result.m[7] = a.m[7] + b.m[7];
+		result.m[8] = a.m[8] + b.m[8];
 	}
 
 	public static void mult(Matrix3x3d a, Matrix3x3d b, Matrix3x3d result) {
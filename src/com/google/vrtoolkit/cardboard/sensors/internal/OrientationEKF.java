@@ -2,6 +2,7 @@ package com.google.vrtoolkit.cardboard.sensors.internal;
 
 public class OrientationEKF {
 	private static final float NS2S = 1.0E-9F;
+	private static final double MIN_JACOBIAN_SIN_ANGLE = 1.0E-6D;
 	private double[] rotationMatrix = new double[16];
 	private Matrix3x3d so3SensorFromWorld = new Matrix3x3d();
 	private Matrix3x3d so3LastMotion = new Matrix3x3d();
@@ -27,6 +28,7 @@ public class OrientationEKF {
 	private boolean timestepFilterInit = false;
 	private int numGyroTimestepSamples;
 	private boolean gyroFilterValid = true;
+	private boolean useNumericalJacobian;
 	private Matrix3x3d getPredictedGLMatrixTempM1 = new Matrix3x3d();
 	private Matrix3x3d getPredictedGLMatrixTempM2 = new Matrix3x3d();
 	private Vector3d getPredictedGLMatrixTempV1 = new Vector3d();
@@ -55,6 +57,9 @@ public class OrientationEKF {
 	private Matrix3x3d updateCovariancesAfterMotionTempM2 = new Matrix3x3d();
 	private Matrix3x3d accObservationFunctionForNumericalJacobianTempM = new Matrix3x3d();
 	private Matrix3x3d magObservationFunctionForNumericalJacobianTempM = new Matrix3x3d();
+	private Vector3d observationJacobianTempV1 = new Vector3d();
+	private Vector3d observationJacobianTempV2 = new Vector3d();
+	private Vector3d observationJacobianTempV3 = new Vector3d();
 
 	public OrientationEKF() {
 		reset();
@@ -134,6 +139,14 @@ public class OrientationEKF {
 				this.so3SensorFromWorld);
 	}
 
+	public synchronized void getState(Matrix3x3d so3SensorFromWorld,
+			float[] gyro) {
+		so3SensorFromWorld.set(this.so3SensorFromWorld);
+		gyro[0] = this.lastGyro[0];
+		gyro[1] = this.lastGyro[1];
+		gyro[2] = this.lastGyro[2];
+	}
+
 	public double[] getGLMatrix() {
 		return glMatrixFromSo3(this.so3SensorFromWorld);
 	}
@@ -207,24 +220,27 @@ public class OrientationEKF {
 			accObservationFunctionForNumericalJacobian(this.so3SensorFromWorld,
 					this.mNu);
 
-			double eps = 1.0E-7D;
-			for (int dof = 0; dof < 3; dof++) {
-				Vector3d delta = this.processAccVDelta;
-				delta.setZero();
-				delta.setComponent(dof, eps);
+			if ((this.useNumericalJacobian)
+					|| (!observationJacobian(this.mh, this.mz, this.mH))) {
+				double eps = 1.0E-7D;
+				for (int dof = 0; dof < 3; dof++) {
+					Vector3d delta = this.processAccVDelta;
+					delta.setZero();
+					delta.setComponent(dof, eps);
 
-				So3Util.sO3FromMu(delta, this.processAccTempM1);
-				Matrix3x3d.mult(this.processAccTempM1, this.so3SensorFromWorld,
-						this.processAccTempM2);
+					So3Util.sO3FromMu(delta, this.processAccTempM1);
+					Matrix3x3d.mult(this.processAccTempM1, this.so3SensorFromWorld,
+							this.processAccTempM2);
 
-				accObservationFunctionForNumericalJacobian(
-						this.processAccTempM2, this.processAccTempV1);
+					accObservationFunctionForNumericalJacobian(
+							this.processAccTempM2, this.processAccTempV1);
 
-				Vector3d withDelta = this.processAccTempV1;
+					Vector3d withDelta = this.processAccTempV1;
 
-				Vector3d.sub(this.mNu, withDelta, this.processAccTempV2);
-				this.processAccTempV2.scale(1.0D / eps);
-				this.mH.setColumn(dof, this.processAccTempV2);
+					Vector3d.sub(this.mNu, withDelta, this.processAccTempV2);
+					this.processAccTempV2.scale(1.0D / eps);
+					this.mH.setColumn(dof, this.processAccTempV2);
+				}
 			}
 			this.mH.transpose(this.processAccTempM3);
 			Matrix3x3d.mult(this.mP, this.processAccTempM3,
@@ -281,25 +297,28 @@ public class OrientationEKF {
 			magObservationFunctionForNumericalJacobian(this.so3SensorFromWorld,
 					this.mNu);
 
-			double eps = 1.0E-7D;
-			for (int dof = 0; dof < 3; dof++) {
-				Vector3d delta = this.processMagTempV3;
-				delta.setZero();
-				delta.setComponent(dof, eps);
+			if ((this.useNumericalJacobian)
+					|| (!observationJacobian(this.mh, this.mz, this.mH))) {
+				double eps = 1.0E-7D;
+				for (int dof = 0; dof < 3; dof++) {
+					Vector3d delta = this.processMagTempV3;
+					delta.setZero();
+					delta.setComponent(dof, eps);
 
-				So3Util.sO3FromMu(delta, this.processMagTempM1);
-				Matrix3x3d.mult(this.processMagTempM1, this.so3SensorFromWorld,
-						this.processMagTempM2);
+					So3Util.sO3FromMu(delta, this.processMagTempM1);
+					Matrix3x3d.mult(this.processMagTempM1, this.so3SensorFromWorld,
+							this.processMagTempM2);
 
-				magObservationFunctionForNumericalJacobian(
-						this.processMagTempM2, this.processMagTempV4);
+					magObservationFunctionForNumericalJacobian(
+							this.processMagTempM2, this.processMagTempV4);
 
-				Vector3d withDelta = this.processMagTempV4;
+					Vector3d withDelta = this.processMagTempV4;
 
-				Vector3d.sub(this.mNu, withDelta, this.processMagTempV5);
-				this.processMagTempV5.scale(1.0D / eps);
+					Vector3d.sub(this.mNu, withDelta, this.processMagTempV5);
+					this.processMagTempV5.scale(1.0D / eps);
 
-				this.mH.setColumn(dof, this.processMagTempV5);
+					this.mH.setColumn(dof, this.processMagTempV5);
+				}
 			}
 			this.mH.transpose(this.processMagTempM4);
 			Matrix3x3d.mult(this.mP, this.processMagTempM4,
@@ -389,6 +408,54 @@ public class OrientationEKF {
 				result);
 	}
 
+	void setUseNumericalJacobian(boolean useNumericalJacobian) {
+		this.useNumericalJacobian = useNumericalJacobian;
+	}
+
+	boolean observationJacobian(Vector3d h, Vector3d z,
+			Matrix3x3d result) {
+		double hLength = h.length();
+		double zLength = z.length();
+		if ((hLength == 0.0D) || (zLength == 0.0D)) {
+			return false;
+		}
+		Vector3d a = this.observationJacobianTempV1;
+		a.set(h);
+		a.scale(1.0D / hLength);
+		Vector3d b = this.observationJacobianTempV2;
+		b.set(z);
+		b.scale(1.0D / zLength);
+		Vector3d axis = this.observationJacobianTempV3;
+		Vector3d.cross(a, b, axis);
+
+		double sinAngle = axis.length();
+		double cosAngle = Vector3d.dot(a, b);
+		double angleOverSin;
+		double axisWeight;
+		if (sinAngle < MIN_JACOBIAN_SIN_ANGLE) {
+			if (cosAngle < 0.0D) {
+				return false;
+			}
+			angleOverSin = 1.0D;
+			axisWeight = 0.0D;
+		} else {
+			angleOverSin = Math.atan2(sinAngle, cosAngle) / sinAngle;
+			axisWeight = 1.0D - angleOverSin * cosAngle;
+			axis.scale(1.0D / sinAngle);
+		}
+		result.set(axisWeight * axis.x * axis.x - angleOverSin
+				* (a.x * b.x - cosAngle), axisWeight * axis.x * axis.y
+				- angleOverSin * a.x * b.y, axisWeight * axis.x * axis.z
+				- angleOverSin * a.x * b.z, axisWeight * axis.y * axis.x
+				- angleOverSin * a.y * b.x, axisWeight * axis.y * axis.y
+				- angleOverSin * (a.y * b.y - cosAngle), axisWeight * axis.y
+				* axis.z - angleOverSin * a.y * b.z, axisWeight * axis.z
+				* axis.x - angleOverSin * a.z * b.x, axisWeight * axis.z
+				* axis.y - angleOverSin * a.z * b.y, axisWeight * axis.z
+				* axis.z - angleOverSin * (a.z * b.z - cosAngle));
+		return true;
+	}
+
 	public static void arrayAssign(double[][] data, Matrix3x3d m) {
 		assert (3 == data.length);
 		assert (3 == data[0].length);
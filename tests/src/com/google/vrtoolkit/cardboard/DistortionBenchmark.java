@@ -0,0 +1,71 @@
+package com.google.vrtoolkit.cardboard;
+
+public class DistortionBenchmark {
+	private static final int NUM_RADII = 3200;
+	private static final float MAX_RADIUS = 0.08F;
+	private static final int ITERATIONS = 500;
+	private static final int ROUNDS = 5;
+	private static float sSink;
+
+	public static void main(String[] args) {
+		float[] radii = new float[NUM_RADII];
+		float[] out = new float[NUM_RADII];
+		for (int i = 0; i < NUM_RADII; i++) {
+			radii[i] = MAX_RADIUS * i / (NUM_RADII - 1);
+		}
+		long buildStart = System.nanoTime();
+		new Distortion().distortInverse(MAX_RADIUS);
+		long buildNanos = System.nanoTime() - buildStart;
+		System.out.println("table build: " + buildNanos / 1000L + " us");
+
+		Distortion distortion = new Distortion();
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int it = 0; it < ITERATIONS; it++) {
+				for (int i = 0; i < NUM_RADII; i++) {
+					sSink += distortion.distortInverseIterative(radii[i]);
+				}
+			}
+			double iterative = perCall(start);
+
+			start = System.nanoTime();
+			for (int it = 0; it < ITERATIONS; it++) {
+				for (int i = 0; i < NUM_RADII; i++) {
+					sSink += distortion.distortInverse(radii[i]);
+				}
+			}
+			double table = perCall(start);
+
+			start = System.nanoTime();
+			for (int it = 0; it < ITERATIONS; it++) {
+				distortion.distortInverse(radii, out, NUM_RADII);
+				sSink += out[it % NUM_RADII];
+			}
+			double batch = perCall(start);
+
+			System.out.println("round " + round + ": iterative "
+					+ format(iterative) + " ns/call, table " + format(table)
+					+ " ns/call, table batch " + format(batch) + " ns/call");
+		}
+		float iterativeResidual = 0.0F;
+		float tableResidual = 0.0F;
+		for (int i = 0; i < NUM_RADII; i++) {
+			iterativeResidual = Math.max(iterativeResidual, Math.abs(distortion
+					.distort(distortion.distortInverseIterative(radii[i]))
+					- radii[i]));
+			tableResidual = Math.max(tableResidual, Math.abs(distortion
+					.distort(distortion.distortInverse(radii[i])) - radii[i]));
+		}
+		System.out.println("max |distort(inverse(r)) - r|: iterative "
+				+ iterativeResidual + " m, table " + tableResidual + " m");
+		System.out.println("checksum: " + sSink);
+	}
+
+	private static double perCall(long startNanos) {
+		return (System.nanoTime() - startNanos) / ((double) ITERATIONS * NUM_RADII);
+	}
+
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 10.0D) / 10.0D);
+	}
+}
@@ -0,0 +1,115 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import com.google.vrtoolkit.cardboard.sensors.internal.OrientationEKF;
+
+public class HeadTrackerBenchmark {
+	private static final int NUM_SAMPLES = 2000;
+	private static final long SAMPLE_PERIOD_NANOS = 5000000L;
+	private static final double PREDICTION_HORIZON_SECONDS = 0.03333333333333333D;
+	private static final int ITERATIONS = 5000000;
+	private static final int ROUNDS = 3;
+	private static final float[] EKF_TO_HEAD_TRACKER = { 1.0F, 0.0F, 0.0F,
+			0.0F, 0.0F, 0.0F, 1.0F, 0.0F, 0.0F, -1.0F, 0.0F, 0.0F, 0.0F, 0.0F,
+			0.0F, 1.0F };
+	private static final float[] sTmpHeadView = new float[16];
+	private static long sLastGyroEventTimeNanos;
+	private static float sSink;
+
+	public static void main(String[] args) {
+		HeadTracker headTracker = new HeadTracker(null);
+		OrientationEKF tracker = new OrientationEKF();
+		float[] values = new float[3];
+		float[] rotated = new float[3];
+		long timestamp = System.nanoTime() - NUM_SAMPLES * SAMPLE_PERIOD_NANOS;
+		for (int i = 0; i < NUM_SAMPLES; i++) {
+			timestamp += SAMPLE_PERIOD_NANOS;
+			int sensorType = i % 2 == 0 ? 4 : 1;
+			double t = i * SAMPLE_PERIOD_NANOS * 1.0E-9D;
+			if (sensorType == 4) {
+				values[0] = (float) (0.8D * Math.sin(1.3D * t));
+				values[1] = (float) (0.5D * Math.cos(0.7D * t));
+				values[2] = (float) (0.3D * Math.sin(2.1D * t));
+			} else {
+				values[0] = (float) (0.4D * Math.sin(0.9D * t));
+				values[1] = 9.81F;
+				values[2] = (float) (0.4D * Math.cos(1.1D * t));
+			}
+			headTracker.processSample(sensorType, values, timestamp, timestamp);
+			rotated[0] = (-values[1]);
+			rotated[1] = values[0];
+			rotated[2] = values[2];
+			if (sensorType == 4) {
+				sLastGyroEventTimeNanos = timestamp;
+				tracker.processGyro(rotated, timestamp);
+			} else {
+				tracker.processAcc(rotated, timestamp);
+			}
+		}
+		headTracker.publishPose();
+
+		float[] oldHeadView = new float[16];
+		float[] newHeadView = new float[16];
+		getLastHeadViewOld(tracker, oldHeadView);
+		headTracker.getLastHeadView(newHeadView, 0);
+		float maxError = 0.0F;
+		for (int i = 0; i < 16; i++) {
+			maxError = Math.max(maxError,
+					Math.abs(oldHeadView[i] - newHeadView[i]));
+		}
+		System.out.println("max |old - new|: " + maxError);
+
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				getLastHeadViewOld(tracker, oldHeadView);
+				sSink += oldHeadView[i & 15];
+			}
+			double oldPath = perCall(start);
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				headTracker.getLastHeadView(newHeadView, 0);
+				sSink += newHeadView[i & 15];
+			}
+			double newPath = perCall(start);
+
+			System.out.println("round " + round + ": old " + format(oldPath)
+					+ " ns/call, new " + format(newPath) + " ns/call");
+		}
+		System.out.println("checksum: " + sSink);
+	}
+
+	private static void getLastHeadViewOld(OrientationEKF tracker,
+			float[] headView) {
+		synchronized (tracker) {
+			double secondsSinceLastGyroEvent = (System.nanoTime() - sLastGyroEventTimeNanos) * 1.0E-9D;
+			double[] mat = tracker
+					.getPredictedGLMatrix(secondsSinceLastGyroEvent
+							+ PREDICTION_HORIZON_SECONDS);
+			for (int i = 0; i < 16; i++) {
+				sTmpHeadView[i] = ((float) mat[i]);
+			}
+		}
+		multiplyMM(headView, sTmpHeadView, EKF_TO_HEAD_TRACKER);
+	}
+
+	private static void multiplyMM(float[] result, float[] lhs, float[] rhs) {
+		for (int c = 0; c < 4; c++) {
+			for (int r = 0; r < 4; r++) {
+				float sum = 0.0F;
+				for (int k = 0; k < 4; k++) {
+					sum += lhs[(4 * k + r)] * rhs[(4 * c + k)];
+				}
+				result[(4 * c + r)] = sum;
+			}
+		}
+	}
+
+	private static double perCall(long startNanos) {
+		return (System.nanoTime() - startNanos) / (double) ITERATIONS;
+	}
+
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 10.0D) / 10.0D);
+	}
+}
@@ -0,0 +1,65 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.Random;
+
+public class OrientationEKFBenchmark {
+	private static final int NUM_VALUES = 1024;
+	private static final int ITERATIONS = 400000;
+	private static final int ROUNDS = 5;
+	private static double sSink;
+
+	public static void main(String[] args) {
+		Random random = new Random(5L);
+		float[][] accValues = new float[NUM_VALUES][3];
+		float[][] magValues = new float[NUM_VALUES][3];
+		for (int i = 0; i < NUM_VALUES; i++) {
+			accValues[i][0] = ((float) (0.5D * random.nextGaussian()));
+			accValues[i][1] = ((float) (0.5D * random.nextGaussian()));
+			accValues[i][2] = 9.81F;
+			magValues[i][0] = ((float) (0.5D * random.nextGaussian()));
+			magValues[i][1] = ((float) (1.0D + 0.5D * random.nextGaussian()));
+			magValues[i][2] = ((float) (0.5D * random.nextGaussian()));
+		}
+		for (int round = 0; round < ROUNDS; round++) {
+			double accAnalytic = perSample(accValues, false, false);
+			double accNumerical = perSample(accValues, false, true);
+			double magAnalytic = perSample(magValues, true, false);
+			double magNumerical = perSample(magValues, true, true);
+			System.out.println("round " + round + ": processAcc analytic "
+					+ format(accAnalytic) + " ns, numerical "
+					+ format(accNumerical) + " ns; processMag analytic "
+					+ format(magAnalytic) + " ns, numerical "
+					+ format(magNumerical) + " ns");
+		}
+		System.out.println("checksum: " + sSink);
+	}
+
+	private static double perSample(float[][] values, boolean magnetometer,
+			boolean useNumericalJacobian) {
+		OrientationEKF tracker = new OrientationEKF();
+		tracker.setUseNumericalJacobian(useNumericalJacobian);
+		tracker.processAcc(new float[] { 0.0F, 0.0F, 9.81F }, 1L);
+		if (magnetometer) {
+			tracker.processMag(new float[] { 0.0F, 1.0F, 0.0F }, 1L);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			float[] value = values[(i & (NUM_VALUES - 1))];
+			if (magnetometer) {
+				tracker.processMag(value, 2L + i);
+			} else {
+				tracker.processAcc(value, 2L + i);
+			}
+			if ((i & 0x3F) == 0) {
+				tracker.processGyro(value, 1000000L * i);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		sSink += tracker.getGLMatrix()[0];
+		return elapsed / (double) ITERATIONS;
+	}
+
+	private static String format(double value) {
+		return String.valueOf(Math.round(value));
+	}
+}
@@ -0,0 +1,210 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import android.test.InstrumentationTestCase;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Random;
+
+public class OrientationEKFTest extends InstrumentationTestCase {
+	private static final String TRACE_ASSET = "orientation_ekf_trace.csv";
+	private static final double JACOBIAN_EPS = 1.0E-6D;
+	private static final double MAX_JACOBIAN_ERROR = 1.0E-4D;
+	private static final double MAX_STATE_DIFFERENCE = 1.0E-5D;
+	private static final int TRACE_SAMPLES = 4000;
+	private static final long SAMPLE_PERIOD_NANOS = 5000000L;
+
+	public void testObservationJacobianMatchesCentralDifferences() {
+		OrientationEKF ekf = new OrientationEKF();
+		Random random = new Random(7L);
+		Matrix3x3d jacobian = new Matrix3x3d();
+		Vector3d h = new Vector3d();
+		Vector3d z = new Vector3d();
+		for (int i = 0; i < 2000; i++) {
+			h.set(random.nextGaussian(), random.nextGaussian(),
+					random.nextGaussian());
+			double spread = i % 2 == 0 ? 1.0D : 1.0E-4D;
+			z.set(h.x + spread * random.nextGaussian(), h.y + spread
+					* random.nextGaussian(), h.z + spread
+					* random.nextGaussian());
+			z.scale(0.5D + random.nextDouble());
+			assertTrue(ekf.observationJacobian(h, z, jacobian));
+			for (int dof = 0; dof < 3; dof++) {
+				Vector3d plus = observation(rotate(h, dof, JACOBIAN_EPS), z);
+				Vector3d minus = observation(rotate(h, dof, -JACOBIAN_EPS), z);
+				for (int row = 0; row < 3; row++) {
+					double numerical = -(component(plus, row) - component(
+							minus, row)) / (2.0D * JACOBIAN_EPS);
+					assertEquals("sample " + i + " row " + row + " dof "
+							+ dof, numerical, jacobian.get(row, dof),
+							MAX_JACOBIAN_ERROR * Math.max(1.0D,
+									Math.abs(numerical)));
+				}
+			}
+		}
+	}
+
+	public void testObservationJacobianRejectsDegenerateInputs() {
+		OrientationEKF ekf = new OrientationEKF();
+		Matrix3x3d jacobian = new Matrix3x3d();
+		assertFalse(ekf.observationJacobian(new Vector3d(0.0D, 0.0D, 1.0D),
+				new Vector3d(0.0D, 0.0D, -2.0D), jacobian));
+		assertFalse(ekf.observationJacobian(new Vector3d(),
+				new Vector3d(0.0D, 0.0D, 1.0D), jacobian));
+		assertTrue(ekf.observationJacobian(new Vector3d(0.0D, 0.0D, 1.0D),
+				new Vector3d(0.0D, 0.0D, 3.0D), jacobian));
+	}
+
+	public void testAnalyticJacobianTracksNumericalJacobianOnRecordedTrace()
+			throws IOException {
+		OrientationEKF analytic = new OrientationEKF();
+		OrientationEKF numerical = new OrientationEKF();
+		numerical.setUseNumericalJacobian(true);
+		Matrix3x3d analyticState = new Matrix3x3d();
+		Matrix3x3d numericalState = new Matrix3x3d();
+		float[] gyro = new float[3];
+		float[] values = new float[3];
+		int samples = 0;
+		double maxDifference = 0.0D;
+		BufferedReader input = new BufferedReader(new InputStreamReader(
+				getInstrumentation().getContext().getAssets()
+						.open(TRACE_ASSET)));
+		try {
+			String line;
+			while ((line = input.readLine()) != null) {
+				if ((line.length() == 0) || (line.charAt(0) == '#')) {
+					continue;
+				}
+				String[] fields = line.split(",");
+				long timestamp = Long.parseLong(fields[0]);
+				int sensorType = Integer.parseInt(fields[1]);
+				values[0] = (-Float.parseFloat(fields[3]));
+				values[1] = Float.parseFloat(fields[2]);
+				values[2] = Float.parseFloat(fields[4]);
+				if (sensorType == 1) {
+					analytic.processAcc(values, timestamp);
+					numerical.processAcc(values, timestamp);
+				} else if (sensorType == 4) {
+					analytic.processGyro(values, timestamp);
+					numerical.processGyro(values, timestamp);
+				} else {
+					continue;
+				}
+				samples++;
+				analytic.getState(analyticState, gyro);
+				numerical.getState(numericalState, gyro);
+				maxDifference = Math.max(maxDifference,
+						angleBetween(analyticState, numericalState));
+			}
+		} finally {
+			input.close();
+		}
+		assertTrue(samples > 0);
+		assertTrue("max state difference " + maxDifference + " rad",
+				maxDifference < MAX_STATE_DIFFERENCE);
+	}
+
+	public void testAnalyticJacobianTracksNumericalJacobianWithAccelerometer() {
+		assertTracesMatch(false);
+	}
+
+	public void testAnalyticJacobianTracksNumericalJacobianWithMagnetometer() {
+		assertTracesMatch(true);
+	}
+
+	private static void assertTracesMatch(boolean useMagnetometer) {
+		OrientationEKF analytic = new OrientationEKF();
+		OrientationEKF numerical = new OrientationEKF();
+		numerical.setUseNumericalJacobian(true);
+		Random random = new Random(1L);
+		Vector3d down = new Vector3d(0.0D, 0.0D, 9.81D);
+		Vector3d north = new Vector3d(0.0D, 1.0D, 0.0D);
+		Matrix3x3d truth = new Matrix3x3d();
+		Matrix3x3d nextTruth = new Matrix3x3d();
+		Matrix3x3d motion = new Matrix3x3d();
+		Vector3d rate = new Vector3d();
+		Vector3d expected = new Vector3d();
+		float[] sample = new float[3];
+		Matrix3x3d analyticState = new Matrix3x3d();
+		Matrix3x3d numericalState = new Matrix3x3d();
+		float[] gyro = new float[3];
+		double maxDifference = 0.0D;
+		for (int i = 0; i < TRACE_SAMPLES; i++) {
+			double t = i * SAMPLE_PERIOD_NANOS * 1.0E-9D;
+			long timestamp = 1000000000L + i * SAMPLE_PERIOD_NANOS;
+			truthAt(t, truth);
+			truthAt(t + SAMPLE_PERIOD_NANOS * 1.0E-9D, nextTruth);
+			truth.transpose(motion);
+			Matrix3x3d.mult(nextTruth, motion, motion);
+			So3Util.muFromSO3(motion, rate);
+			rate.scale(-1.0E9D / SAMPLE_PERIOD_NANOS);
+			sample[0] = ((float) (rate.x + 0.01D * random.nextGaussian()));
+			sample[1] = ((float) (rate.y + 0.01D * random.nextGaussian()));
+			sample[2] = ((float) (rate.z + 0.01D * random.nextGaussian()));
+			analytic.processGyro(sample, timestamp);
+			numerical.processGyro(sample, timestamp);
+			if (i % 2 == 1) {
+				Matrix3x3d.mult(nextTruth, down, expected);
+				sample[0] = ((float) (expected.x + 0.3D * random.nextGaussian()));
+				sample[1] = ((float) (expected.y + 0.3D * random.nextGaussian()));
+				sample[2] = ((float) (expected.z + 0.3D * random.nextGaussian()));
+				analytic.processAcc(sample, timestamp + 1L);
+				numerical.processAcc(sample, timestamp + 1L);
+			}
+			if ((useMagnetometer) && (i % 4 == 3)) {
+				Matrix3x3d.mult(nextTruth, north, expected);
+				sample[0] = ((float) (expected.x + 0.05D * random.nextGaussian()));
+				sample[1] = ((float) (expected.y + 0.05D * random.nextGaussian()));
+				sample[2] = ((float) (expected.z + 0.05D * random.nextGaussian()));
+				analytic.processMag(sample, timestamp + 2L);
+				numerical.processMag(sample, timestamp + 2L);
+			}
+			analytic.getState(analyticState, gyro);
+			numerical.getState(numericalState, gyro);
+			maxDifference = Math.max(maxDifference,
+					angleBetween(analyticState, numericalState));
+		}
+		assertTrue("max state difference " + maxDifference + " rad",
+				maxDifference < MAX_STATE_DIFFERENCE);
+	}
+
+	private static void truthAt(double t, Matrix3x3d result) {
+		Vector3d mu = new Vector3d(0.6D * Math.sin(0.7D * t) + 0.2D
+				* Math.sin(3.1D * t), 0.4D * Math.sin(0.5D * t + 1.0D) + 0.1D
+				* Math.sin(5.3D * t), 1.5D * Math.sin(0.3D * t) + 0.3D
+				* Math.sin(2.2D * t + 2.0D));
+		So3Util.sO3FromMu(mu, result);
+	}
+
+	private static double angleBetween(Matrix3x3d a, Matrix3x3d b) {
+		Matrix3x3d bTranspose = new Matrix3x3d();
+		b.transpose(bTranspose);
+		Matrix3x3d difference = new Matrix3x3d();
+		Matrix3x3d.mult(a, bTranspose, difference);
+		double cos = (difference.get(0, 0) + difference.get(1, 1)
+				+ difference.get(2, 2) - 1.0D) / 2.0D;
+		return Math.acos(Math.max(-1.0D, Math.min(1.0D, cos)));
+	}
+
+	private static Vector3d rotate(Vector3d v, int dof, double angle) {
+		Vector3d delta = new Vector3d();
+		delta.setComponent(dof, angle);
+		Matrix3x3d rotation = new Matrix3x3d();
+		So3Util.sO3FromMu(delta, rotation);
+		Vector3d result = new Vector3d();
+		Matrix3x3d.mult(rotation, v, result);
+		return result;
+	}
+
+	private static Vector3d observation(Vector3d h, Vector3d z) {
+		Matrix3x3d rotation = new Matrix3x3d();
+		So3Util.sO3FromTwoVec(h, z, rotation);
+		Vector3d result = new Vector3d();
+		So3Util.muFromSO3(rotation, result);
+		return result;
+	}
+
+	private static double component(Vector3d v, int i) {
+		return i == 0 ? v.x : i == 1 ? v.y : v.z;
+	}
+}
@@ -0,0 +1,52 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+public class SensorTraceRecorder implements SensorEventListener {
+	private static final int[] INPUT_SENSORS = { 1, 4 };
+	private final SensorManager mSensorManager;
+	private final StringBuilder mTrace;
+
+	public SensorTraceRecorder(Context context) {
+		this.mSensorManager = ((SensorManager) context
+				.getSystemService("sensor"));
+		this.mTrace = new StringBuilder("# timestamp_ns,sensor_type,x,y,z\n");
+	}
+
+	public void start() {
+		for (int sensorType : INPUT_SENSORS) {
+			this.mSensorManager.registerListener(this,
+					this.mSensorManager.getDefaultSensor(sensorType), 0);
+		}
+	}
+
+	public void stop(File file) throws IOException {
+		this.mSensorManager.unregisterListener(this);
+		Writer output = new FileWriter(file);
+		try {
+			synchronized (this) {
+				output.write(this.mTrace.toString());
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	public synchronized void onSensorChanged(SensorEvent event) {
+		this.mTrace.append(event.timestamp).append(',')
+				.append(event.sensor.getType()).append(',')
+				.append(event.values[0]).append(',').append(event.values[1])
+				.append(',').append(event.values[2]).append('\n');
+	}
+
+	public void onAccuracyChanged(Sensor sensor, int accuracy) {
+	}
+}